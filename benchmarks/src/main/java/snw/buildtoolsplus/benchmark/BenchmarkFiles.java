@@ -0,0 +1,108 @@
+package snw.buildtoolsplus.benchmark;
+
+import snw.buildtoolsplus.Main;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The input files of the benchmarks, generated with a fixed seed so every run measures the same data.
+ *
+ * @author SNWCreations
+ */
+class BenchmarkFiles {
+    private static final long SEED = 20221001;
+
+    // Points Main.DATA_DIR (the hash cache and the rest of our state) into dir, not into the working directory.
+    // Main reads it once, so this must come before anything touches Main. Every trial runs in a JVM of its own (@Fork).
+    static void useDataDir(File dir) {
+        System.setProperty("buildtoolsplus.dataDir", new File(dir, ".buildtoolsplus").getPath());
+        if (!Main.DATA_DIR.equals(new File(dir, ".buildtoolsplus"))) {
+            throw new IllegalStateException("Main has been loaded before the data directory was chosen: " + Main.DATA_DIR);
+        }
+    }
+
+    // random data, which does not compress, like the jars we download
+    static File createRandomFile(String prefix, long size) throws IOException {
+        File file = File.createTempFile("buildtoolsplus-" + prefix, ".bin");
+        file.deleteOnExit();
+        Random random = new Random(SEED);
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    // Shaped like apache-maven-3.6.0.zip: about 10 MB, a few text files and scripts, a hundred jars of different sizes.
+    // The jars are half random, half repeated text, so they inflate about as much as real ones.
+    static File createMavenLikeZip() throws IOException {
+        File file = File.createTempFile("buildtoolsplus-maven", ".zip");
+        file.deleteOnExit();
+        Random random = new Random(SEED);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            String root = "apache-maven-3.6.0/";
+            for (String directory : new String[]{"", "bin/", "boot/", "conf/", "conf/logging/", "lib/", "lib/ext/"}) {
+                out.putNextEntry(new ZipEntry(root + directory));
+                out.closeEntry();
+            }
+            for (String text : new String[]{"LICENSE", "NOTICE", "README.txt", "bin/mvn", "bin/mvn.cmd", "bin/m2.conf", "conf/settings.xml"}) {
+                writeEntry(out, root + text, 8 * 1024, 1.0, random);
+            }
+            writeEntry(out, root + "boot/plexus-classworlds-2.5.2.jar", 52 * 1024, 0.5, random);
+            for (int i = 0; i < 100; i++) {
+                // a few large jars, many small ones
+                int size = i < 5 ? 600 * 1024 : 16 * 1024 + random.nextInt(80 * 1024);
+                writeEntry(out, root + "lib/library-" + i + ".jar", size, 0.5, random);
+            }
+        }
+        return file;
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, int size, double textRatio, Random random) throws IOException {
+        byte[] data = new byte[size];
+        int text = (int) (size * textRatio);
+        byte[] line = "org/apache/maven/model/building/DefaultModelBuilder.class\n".getBytes("US-ASCII");
+        for (int i = 0; i < text; i++) {
+            data[i] = line[i % line.length];
+        }
+        byte[] rest = new byte[size - text];
+        random.nextBytes(rest);
+        System.arraycopy(rest, 0, data, text, rest.length);
+        out.putNextEntry(new ZipEntry(name));
+        out.write(data);
+        out.closeEntry();
+    }
+
+    static void deleteRecursively(File directory) throws IOException {
+        if (!directory.exists()) {
+            return;
+        }
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
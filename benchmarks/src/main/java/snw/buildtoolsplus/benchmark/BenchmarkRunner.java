@@ -0,0 +1,120 @@
+package snw.buildtoolsplus.benchmark;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks and keeps the results of every version of BuildTools+, so they can be compared.
+ * The results are written into <code>results/benchmark-&lt;version&gt;.json</code> (the JMH format, for other tools)
+ *  and <code>results/benchmark-&lt;version&gt;.csv</code> (one line per benchmark and parameters).
+ * <pre>
+ * java -jar target/benchmarks.jar [--compare results/benchmark-1.0.2.csv] [JMH options, e.g. "Hash" -p fileSizeMb=10]
+ * </pre>
+ *
+ * @author SNWCreations
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        File compareWith = null;
+        List<String> jmhArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--compare") && i + 1 < args.length) {
+                compareWith = new File(args[++i]);
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+
+        // read first, it may be the file this run writes
+        Map<String, String[]> previous = compareWith != null ? readCsv(compareWith) : null;
+
+        String version = BenchmarkRunner.class.getPackage().getImplementationVersion();
+        File resultDir = new File("results");
+        resultDir.mkdirs();
+        File json = new File(resultDir, "benchmark-" + version + ".json");
+        File csv = new File(resultDir, "benchmark-" + version + ".csv");
+
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(jmhArgs.toArray(new String[0])))
+                .resultFormat(ResultFormatType.JSON)
+                .result(json.getPath())
+                .build()).run();
+
+        Map<String, String[]> current = new LinkedHashMap<>();
+        for (RunResult result : results) {
+            String name = result.getParams().getBenchmark().replace("snw.buildtoolsplus.benchmark.", "");
+            List<String> params = new ArrayList<>();
+            for (String key : result.getParams().getParamsKeys()) {
+                params.add(key + "=" + result.getParams().getParam(key));
+            }
+            current.put(name + "," + String.join(";", params), new String[]{
+                    String.format(Locale.ROOT, "%.3f", result.getPrimaryResult().getScore()),
+                    String.format(Locale.ROOT, "%.3f", result.getPrimaryResult().getScoreError()),
+                    result.getPrimaryResult().getScoreUnit()
+            });
+        }
+        writeCsv(csv, current);
+        System.out.println("结果已写入 " + json.getPath() + " 和 " + csv.getPath());
+
+        if (previous != null) {
+            compare(previous, current, compareWith.getName());
+        }
+    }
+
+    private static void writeCsv(File file, Map<String, String[]> results) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("benchmark,params,score,error,unit\n");
+            for (Map.Entry<String, String[]> result : results.entrySet()) {
+                writer.write(result.getKey() + "," + String.join(",", result.getValue()) + "\n");
+            }
+        }
+    }
+
+    private static Map<String, String[]> readCsv(File file) throws IOException {
+        Map<String, String[]> results = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] columns = line.split(",");
+            if (columns.length == 5) {
+                results.put(columns[0] + "," + columns[1], new String[]{columns[2], columns[3], columns[4]});
+            }
+        }
+        return results;
+    }
+
+    // A lower score is better, every benchmark measures the average time.
+    // A change within the errors of both runs is marked as noise.
+    private static void compare(Map<String, String[]> previous, Map<String, String[]> current, String previousName) {
+        System.out.println();
+        System.out.println("与 " + previousName + " 比较: ");
+        System.out.println(String.format("%-70s %12s %12s %9s", "benchmark,params", "之前", "现在", "变化"));
+        for (Map.Entry<String, String[]> result : current.entrySet()) {
+            String[] before = previous.get(result.getKey());
+            if (before == null) {
+                continue;
+            }
+            double oldScore = Double.parseDouble(before[0]);
+            double newScore = Double.parseDouble(result.getValue()[0]);
+            double errors = Double.parseDouble(before[1]) + Double.parseDouble(result.getValue()[1]);
+            String change = String.format("%+.1f%%", (newScore - oldScore) * 100 / oldScore);
+            System.out.println(String.format("%-70s %12s %12s %9s%s", result.getKey(), before[0], result.getValue()[0], change,
+                    Math.abs(newScore - oldScore) <= errors ? " (误差内)" : ""));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package snw.buildtoolsplus.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import snw.buildtoolsplus.FileDownload;
+import snw.buildtoolsplus.Main;
+import snw.buildtoolsplus.Metrics;
+import snw.buildtoolsplus.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole {@link FileDownload}: probing, the segments, writing and the SHA-1 check, from a {@link LocalHttpServer}.
+ * The latency and the speed of the server stand in for a mirror, the connections are the <code>--download-connections</code> option.
+ *
+ * @author SNWCreations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    @Param({"0", "50"})
+    public long latencyMillis;
+
+    // per connection, 0 - as fast as the loopback goes
+    @Param({"0", "8"})
+    public long bandwidthMbPerSecond;
+
+    @Param({"1", "4"})
+    public int connections;
+
+    private LocalHttpServer server;
+    private File source;
+    private String sha1;
+    private File workDir;
+    private File target;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        workDir = Files.createTempDirectory("buildtoolsplus-download").toFile();
+        // the SHA-1 of every finished download goes into the hash cache, which must not be the one of the working directory
+        BenchmarkFiles.useDataDir(workDir);
+        source = BenchmarkFiles.createRandomFile("download", FILE_SIZE);
+        sha1 = Util.getFileDigest(source, "sha-1");
+        server = new LocalHttpServer(Files.readAllBytes(source.toPath()), latencyMillis, bandwidthMbPerSecond * 1024 * 1024);
+        target = new File(workDir, "file.bin");
+        Main.DOWNLOAD_CONNECTIONS = connections;
+        Main.MAX_CONNECTIONS = Math.max(Main.MAX_CONNECTIONS, connections);
+
+        // the progress of every download would bury the results
+        originalOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() {
+        target.delete();
+    }
+
+    @TearDown(Level.Iteration)
+    public void resetMetrics() {
+        Metrics.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        System.setOut(originalOut);
+        server.close();
+        source.delete();
+        BenchmarkFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public void download() throws IOException {
+        new FileDownload(server.getUrl(), target.getPath(), sha1).start();
+    }
+}
@@ -0,0 +1,60 @@
+package snw.buildtoolsplus.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import snw.buildtoolsplus.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SHA-1 of a file with {@link Util#getFileDigest(File, String, int)}, which checks every download and cached artifact.
+ * The file is read from the page cache after the first iteration, so this measures the digest and the reads, not the disk.
+ * Divide the file size by the average time for the throughput.
+ *
+ * @author SNWCreations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+    // 64 KB is what the program uses
+    @Param({"8192", "65536", "1048576"})
+    public int bufferSize;
+
+    // about a small artifact, the Maven archive and a server jar
+    @Param({"1", "10", "50"})
+    public int fileSizeMb;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = BenchmarkFiles.createRandomFile("hash", fileSizeMb * 1024L * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String sha1() {
+        return Util.getFileDigest(file, "sha-1", bufferSize);
+    }
+}
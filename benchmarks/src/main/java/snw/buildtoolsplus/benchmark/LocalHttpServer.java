@@ -0,0 +1,98 @@
+package snw.buildtoolsplus.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for a mirror: serves one file with byte ranges, after a fixed latency and at a limited speed per connection,
+ *  so the downloads can be measured without the network.
+ *
+ * @author SNWCreations
+ */
+class LocalHttpServer implements AutoCloseable {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Local-HTTP");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final byte[] data;
+    private final long latencyMillis;
+    // 0 - no limit
+    private final long bytesPerSecond;
+
+    LocalHttpServer(byte[] data, long latencyMillis, long bytesPerSecond) throws IOException {
+        this.data = data;
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/file.bin", this::handle);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/file.bin";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            sleep(latencyMillis);
+            int from = 0;
+            int to = data.length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range"); // only "bytes=a-b" is sent by FileDownload
+            if (range != null && range.startsWith("bytes=")) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                from = Integer.parseInt(bounds[0]);
+                to = Math.min(Integer.parseInt(bounds[1]), data.length - 1);
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                exchange.sendResponseHeaders(206, to - from + 1);
+            } else {
+                exchange.sendResponseHeaders(200, data.length);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                long started = System.nanoTime();
+                for (int position = from; position <= to; position += CHUNK_SIZE) {
+                    int length = Math.min(CHUNK_SIZE, to - position + 1);
+                    out.write(data, position, length);
+                    if (bytesPerSecond > 0) {
+                        // where we should be by now at the given speed
+                        long dueNanos = (long) ((position - from + length) * 1e9 / bytesPerSecond);
+                        sleep(TimeUnit.NANOSECONDS.toMillis(dueNanos - (System.nanoTime() - started)));
+                    }
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
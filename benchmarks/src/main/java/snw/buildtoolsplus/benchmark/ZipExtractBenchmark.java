@@ -0,0 +1,69 @@
+package snw.buildtoolsplus.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import snw.buildtoolsplus.Metrics;
+import snw.buildtoolsplus.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of a generated archive shaped like the Maven distribution BuildTools+ unpacks, with {@link Util#zipUncompress}.
+ * Every invocation extracts into an empty directory.
+ *
+ * @author SNWCreations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipExtractBenchmark {
+    private File archive;
+    private File workDir;
+    private File destDir;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException {
+        workDir = Files.createTempDirectory("buildtoolsplus-unzip").toFile();
+        // the manifest of the extraction asks the hash cache for the SHA-1 of the archive
+        BenchmarkFiles.useDataDir(workDir);
+        archive = BenchmarkFiles.createMavenLikeZip();
+        destDir = new File(workDir, "apache-maven-3.6.0");
+    }
+
+    @TearDown(Level.Invocation)
+    public void clean() throws IOException {
+        BenchmarkFiles.deleteRecursively(destDir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void resetMetrics() {
+        Metrics.reset(); // every extraction records a phase
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() throws IOException {
+        archive.delete();
+        BenchmarkFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public void extract() throws Exception {
+        Util.zipUncompress(archive.getPath(), destDir.getPath());
+    }
+}
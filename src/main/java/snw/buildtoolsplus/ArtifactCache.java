@@ -0,0 +1,255 @@
+package snw.buildtoolsplus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of the downloaded artifacts, shared by every running directory (and, on a network file system, every machine).
+ * The files are stored by their SHA-1 as <code>objects/ab/abcdef...</code>, so the same server jar is downloaded once,
+ *  whichever directory asked for it first. A hit is copied into the running directory, and a download is copied into the cache:
+ *  a hard link would share the object with whatever later writes to the file in place, and change it under its SHA-1.
+ * File locks keep concurrent processes from downloading the same artifact twice,
+ *  the artifacts that have not been used for the longest time are removed when the cache grows over its size limit.
+ *
+ * @author SNWCreations
+ */
+public class ArtifactCache {
+    // FileLock is held by the whole JVM, so our own threads have to wait for each other first
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+    private static final ReentrantLock EVICT_LOCK = new ReentrantLock();
+    // touched on every use, reading an object does not update its access time on every file system
+    private static final String USED_SUFFIX = ".used";
+
+    // Places the artifact with the given SHA-1 at target, from the cache if it is there.
+    // Otherwise the download puts it there, and it is added to the cache.
+    public static void fetch(String sha1, File target, TaskScheduler.Step download) throws Exception {
+        if (Main.CACHE_DIR == null || sha1 == null) {
+            download.run();
+            return;
+        }
+        sha1 = sha1.toLowerCase();
+        File object = objectFile(sha1);
+        ReentrantLock threadLock = lockOf(sha1);
+        threadLock.lock();
+        try {
+            try (FileChannel channel = openLockFile(sha1 + ".lock")) {
+                channel.lock(); // released when the channel is closed
+                if (restore0(object, sha1, target)) {
+                    System.out.println("从缓存中取得 " + target.getName() + " 。");
+                    return;
+                }
+
+                download.run();
+                store(target, object);
+                touch(object);
+            }
+        } finally {
+            threadLock.unlock();
+        }
+        evict(object);
+    }
+
+    // Places the artifact with the given SHA-1 at target, if the cache has it.
+    public static boolean restore(String sha1, File target) throws IOException {
+        if (Main.CACHE_DIR == null) {
+            return false;
+        }
+        sha1 = sha1.toLowerCase();
+        ReentrantLock threadLock = lockOf(sha1);
+        threadLock.lock();
+        try {
+            try (FileChannel channel = openLockFile(sha1 + ".lock")) {
+                channel.lock(); // released when the channel is closed
+                return restore0(objectFile(sha1), sha1, target);
+            }
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+    // Adds a file we have made ourselves, returns its SHA-1.
+    public static String add(File file) throws IOException {
+        String sha1 = HashCache.getSha1(file);
+        if (Main.CACHE_DIR == null || sha1 == null) {
+            return sha1;
+        }
+        File object = objectFile(sha1);
+        ReentrantLock threadLock = lockOf(sha1);
+        threadLock.lock();
+        try {
+            try (FileChannel channel = openLockFile(sha1 + ".lock")) {
+                channel.lock(); // released when the channel is closed
+                if (!HashCache.matches(object, sha1)) {
+                    store(file, object);
+                }
+                touch(object);
+            }
+        } finally {
+            threadLock.unlock();
+        }
+        evict(object);
+        return sha1;
+    }
+
+    private static boolean restore0(File object, String sha1, File target) throws IOException {
+        if (!HashCache.matches(object, sha1)) {
+            // changed after it was stored (e.g. through a hard link made by an older version), it is downloaded again
+            if (object.delete()) {
+                new File(object.getPath() + USED_SUFFIX).delete();
+            }
+            return false;
+        }
+        copy(object, target);
+        HashCache.put(target, sha1);
+        touch(object);
+        return true;
+    }
+
+    private static ReentrantLock lockOf(String sha1) {
+        return LOCKS.computeIfAbsent(sha1, k -> new ReentrantLock());
+    }
+
+    private static File objectFile(String sha1) {
+        return new File(new File(new File(Main.CACHE_DIR, "objects"), sha1.substring(0, 2)), sha1);
+    }
+
+    private static FileChannel openLockFile(String name) throws IOException {
+        File lockFile = new File(new File(Main.CACHE_DIR, "locks"), name);
+        lockFile.getParentFile().mkdirs();
+        return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    // A failure here only costs the next directory a download, so it is not fatal.
+    private static void store(File source, File object) {
+        try {
+            copy(source, object);
+        } catch (IOException e) {
+            System.err.println("无法将 " + source.getName() + " 加入缓存: " + e.getMessage());
+        }
+    }
+
+    // Through a temporary file, so the target is never seen half written.
+    private static void copy(File source, File target) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try {
+            target.getAbsoluteFile().getParentFile().mkdirs();
+            Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+
+    private static void touch(File object) {
+        File used = new File(object.getPath() + USED_SUFFIX);
+        try {
+            if (!used.createNewFile()) {
+                used.setLastModified(System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            // the object just looks older than it is
+        }
+    }
+
+    private static long lastUsed(File object) {
+        File used = new File(object.getPath() + USED_SUFFIX);
+        return used.isFile() ? used.lastModified() : object.lastModified();
+    }
+
+    // Removes the least recently used objects until the cache fits into its limit again.
+    // Nothing here waits: if another thread or process is evicting, it does the work,
+    //  and an object somebody is fetching or restoring right now is skipped.
+    // keep - the object we have just used, never removed
+    private static void evict(File keep) {
+        File[] buckets = new File(Main.CACHE_DIR, "objects").listFiles(File::isDirectory);
+        if (buckets == null) {
+            return;
+        }
+        List<File> objects = new ArrayList<>();
+        long total = 0;
+        for (File bucket : buckets) {
+            File[] files = bucket.listFiles(file -> file.isFile() && file.getName().length() == 40);
+            if (files != null) {
+                for (File file : files) {
+                    objects.add(file);
+                    total += file.length();
+                }
+            }
+        }
+        if (total <= Main.CACHE_MAX_SIZE) {
+            return;
+        }
+
+        objects.sort(Comparator.comparingLong(ArtifactCache::lastUsed));
+        // a second FileLock on evict.lock from the same JVM would fail, so our own threads are kept out first
+        if (!EVICT_LOCK.tryLock()) {
+            return;
+        }
+        try (FileChannel evictChannel = openLockFile("evict.lock")) {
+            FileLock evictLock = evictChannel.tryLock();
+            if (evictLock == null) {
+                return;
+            }
+            try {
+                for (File object : objects) {
+                    if (total <= Main.CACHE_MAX_SIZE) {
+                        break;
+                    }
+                    if (!object.equals(keep)) {
+                        total -= tryDelete(object);
+                    }
+                }
+            } finally {
+                evictLock.release();
+            }
+        } catch (IOException e) {
+            System.err.println("清理缓存时遇到问题: " + e.getMessage());
+        } finally {
+            EVICT_LOCK.unlock();
+        }
+    }
+
+    // Returns the number of bytes freed, 0 if the object is in use.
+    private static long tryDelete(File object) throws IOException {
+        String sha1 = object.getName();
+        ReentrantLock threadLock = lockOf(sha1);
+        if (!threadLock.tryLock()) {
+            return 0;
+        }
+        try (FileChannel channel = openLockFile(sha1 + ".lock")) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return 0;
+            }
+            try {
+                long length = object.length();
+                if (object.delete()) {
+                    new File(object.getPath() + USED_SUFFIX).delete();
+                    return length;
+                }
+                return 0;
+            } finally {
+                lock.release();
+            }
+        } finally {
+            threadLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package snw.buildtoolsplus;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.StoredConfig;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static snw.buildtoolsplus.Main.CURRENT_DIR;
+import static snw.buildtoolsplus.Util.notContainsGit;
+
+/**
+ * Builds several (version, target) pairs in one invocation.
+ * The tools and repositories prepared in the running directory are shared,
+ *  every build gets its own work directory under <code>builds/</code>, because BuildTools resets the repositories
+ *  to the commits of the version it builds and writes its intermediate files into its working directory.
+ *
+ * @author SNWCreations
+ */
+public class BuildFarm {
+    // BuildTools plus the Maven it starts, roughly
+    private static final long MEMORY_PER_BUILD = 2560L * 1024 * 1024;
+
+    private final List<Build> builds;
+    private final int parallelism;
+    // whether every version uses its own local Maven repository
+    private boolean separateRepositories;
+
+    public BuildFarm(List<Build> builds, int parallelism) {
+        this.builds = builds;
+        this.parallelism = parallelism;
+    }
+
+    // Half of the cores (Maven is multi-threaded as well), but never more than the memory can hold.
+    // getTotalPhysicalMemorySize is deprecated since Java 14, its replacement does not exist in Java 8.
+    @SuppressWarnings("deprecation")
+    public static int getDefaultParallelism() {
+        int byCores = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long memory = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+            return (int) Math.max(1, Math.min(byCores, memory / MEMORY_PER_BUILD));
+        }
+        return byCores;
+    }
+
+    // Returns true if every build succeeded.
+    public boolean run() throws InterruptedException {
+        // The builds of one version "mvn install" the same Bukkit, CraftBukkit and Spigot-API coordinates into the local repository,
+        //  at the same time they would overwrite each other's artifacts. So they run one after another.
+        Map<String, List<Build>> byVersion = new LinkedHashMap<>();
+        for (Build build : builds) {
+            byVersion.computeIfAbsent(build.version, k -> new ArrayList<>()).add(build);
+        }
+        // Different versions still share some of them (spigot-parent is always dev-SNAPSHOT),
+        //  so each version running in parallel gets a local repository of its own.
+        // Maven splits MAVEN_OPTS at whitespace, if the path has some, the versions run one after another as well.
+        int threads = parallelism;
+        if (parallelism > 1 && byVersion.size() > 1) {
+            if (MavenConfig.containsWhitespace(new File(CURRENT_DIR, "builds").getAbsolutePath())) {
+                threads = 1;
+                System.out.println("运行目录的路径中包含空格，无法为各个版本使用单独的 Maven 本地仓库，不同版本也将依次构建。");
+            } else {
+                separateRepositories = true;
+                System.out.println("不同版本同时构建，每个版本使用单独的 Maven 本地仓库 (builds/repository-<版本>) 。");
+            }
+        }
+        System.out.println("将构建 " + builds.size() + " 个服务端，同时运行最多 " + threads + " 个 BuildTools (同一版本的构建依次进行) 。");
+        System.out.println("每个构建的输出保存在 builds/<版本>-<目标>/BuildTools+.log 中。");
+        System.out.println();
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Build-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<Build> sameVersion : byVersion.values()) {
+            futures.add(executor.submit(() -> sameVersion.forEach(this::runBuild)));
+        }
+        executor.shutdown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // runBuild records its own failures
+            }
+        }
+
+        printSummary();
+        return builds.stream().allMatch(build -> build.success);
+    }
+
+    private void runBuild(Build build) {
+        System.out.println("开始构建 " + build.getName() + " 。");
+        try (Metrics.Timer timer = Metrics.start("buildtools", build.version + "-" + build.target.toLowerCase())) {
+            runBuild(build, timer);
+            build.durationMillis = timer.getElapsedMillis();
+        }
+        System.out.println((build.success ? "构建成功: " : "构建失败: ") + build.getName() + " (" + build.message + ")");
+    }
+
+    private void runBuild(Build build, Metrics.Timer timer) {
+        try {
+            File workDir = new File(new File(CURRENT_DIR, "builds"), build.version + "-" + build.target.toLowerCase());
+            Workspace.touch(workDir);
+            prepareWorkDir(workDir, build.version);
+
+            ProcessRunner runner = Main.createBuildToolsRunner(build.version, build.target);
+            if (separateRepositories) {
+                File repository = new File(new File(CURRENT_DIR, "builds"), "repository-" + build.version);
+                Workspace.touch(repository);
+                String mavenOpts = Main.MAVEN_OPTS != null ? Main.MAVEN_OPTS : System.getenv("MAVEN_OPTS");
+                runner.environment("MAVEN_OPTS", (mavenOpts != null ? mavenOpts + " " : "") + "-Dmaven.repo.local=" + repository.getAbsolutePath());
+            }
+            int exitCode = runner
+                    .directory(workDir)
+                    .console(false)
+                    .logFile(new File(workDir, "BuildTools+.log"))
+                    .timeout(Main.BUILD_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                    .run();
+
+            File output = new File(workDir, build.getOutputName());
+            if (exitCode != 0 || !output.isFile()) {
+                build.message = "BuildTools 退出码 " + exitCode;
+            } else {
+                Files.copy(output.toPath(), new File(CURRENT_DIR, build.getOutputName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                build.success = true;
+                build.message = build.getOutputName();
+                timer.succeeded();
+            }
+        } catch (Exception e) {
+            build.message = e.getMessage();
+        }
+    }
+
+    // Everything BuildTools looks for in its working directory, taken from the shared running directory.
+    private static void prepareWorkDir(File workDir, String version) throws Exception {
+        File serverJarDir = new File(workDir, "work");
+        serverJarDir.mkdirs();
+
+        for (String repository : Main.REPOSITORIES) {
+            File local = new File(workDir, repository);
+            if (notContainsGit(local)) {
+                // A local clone is cheap, and BuildTools' own fetch will go to the shared repository instead of Gitee.
+                Git.cloneRepository()
+                        .setURI(new File(CURRENT_DIR, repository).getAbsoluteFile().toURI().toString())
+                        .setDirectory(local)
+                        .call().close();
+                // The shared repository may be on a detached HEAD, with the newest commits only in its origin/master.
+                try (Git git = Git.open(local)) {
+                    StoredConfig config = git.getRepository().getConfig();
+                    List<String> refSpecs = new ArrayList<>(Arrays.asList(config.getStringList("remote", "origin", "fetch")));
+                    refSpecs.add("+refs/remotes/origin/*:refs/remotes/shared/*");
+                    config.setStringList("remote", "origin", "fetch", refSpecs);
+                    config.save();
+                }
+            }
+        }
+
+        String serverJarName = "minecraft_server." + version + ".jar";
+        File serverJar = new File(serverJarDir, serverJarName);
+        if (!serverJar.isFile()) {
+            Util.linkOrCopy(new File(new File(CURRENT_DIR, "work"), serverJarName), serverJar);
+        }
+
+        File[] sharedDirectories = CURRENT_DIR.listFiles(file -> file.isDirectory()
+                && (file.getName().equals("apache-maven-3.6.0") || file.getName().startsWith("PortableGit-")));
+        if (sharedDirectories != null) {
+            for (File shared : sharedDirectories) {
+                File target = new File(workDir, shared.getName());
+                if (!target.exists()) {
+                    Util.linkOrCopy(shared, target);
+                }
+            }
+        }
+    }
+
+    private void printSummary() {
+        System.out.println();
+        System.out.println(String.format("%-12s %-12s %-6s %-8s %s", "版本", "目标", "结果", "耗时", "说明"));
+        for (Build build : builds) {
+            long seconds = build.durationMillis / 1000;
+            System.out.println(String.format("%-12s %-12s %-6s %-8s %s",
+                    build.version, build.target, build.success ? "成功" : "失败",
+                    String.format("%d:%02d", seconds / 60, seconds % 60), build.message));
+        }
+        System.out.println();
+    }
+
+    public static class Build {
+        private final String version;
+        private final String target;
+        private boolean success;
+        private long durationMillis;
+        private String message;
+
+        public Build(String version, String target) {
+            this.version = version;
+            this.target = target;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getName() {
+            return target + " " + version;
+        }
+
+        public String getOutputName() {
+            return target.toLowerCase() + "-" + version + ".jar";
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Build && ((Build) o).version.equals(version) && ((Build) o).target.equals(target);
+        }
+
+        @Override
+        public int hashCode() {
+            return version.hashCode() * 31 + target.hashCode();
+        }
+    }
+}
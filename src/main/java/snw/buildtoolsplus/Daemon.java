@@ -0,0 +1,274 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps BuildTools+ running between builds.
+ * The daemon listens on a loopback port and runs one request at a time, like a normal invocation in its running directory.
+ * A connection is only waited for a few seconds to identify itself, on its own thread, so it cannot block the others.
+ * Everything the runs share stays in memory: the mirror data, the parsed manifests, the checked file hashes,
+ *  the result of the Git check and the time of the last repository update, so a request starts doing real work at once.
+ * The output of a request is sent back to the client that asked for it.
+ * <p>
+ * The port and a random token are written into <code>.buildtoolsplus/daemon.json</code>,
+ *  a client started with <code>--use-daemon</code> in the same directory reads them from there.
+ *
+ * @author SNWCreations
+ */
+public class Daemon {
+    private static final Gson GSON = new Gson();
+    // frame types, each frame is: type (byte), then the length (int) and the data, or the exit code (int)
+    private static final int STDOUT = 1;
+    private static final int STDERR = 2;
+    private static final int EXIT = 3;
+    // a client must have sent its token and arguments within this time
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5 * 1000;
+    // System.out and System.err belong to one request at a time
+    private static final Object REQUEST_LOCK = new Object();
+
+    private static volatile boolean serving;
+
+    public static boolean isServing() {
+        return serving;
+    }
+
+    // Does not return unless the port cannot be used.
+    public static int serve(int port) throws IOException {
+        serving = true;
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        String token = Util.toHex(random);
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            writeInfo(server.getLocalPort(), token);
+            System.out.println("守护进程已启动，监听端口 " + server.getLocalPort() + " 。");
+            System.out.println("在此目录中使用 --use-daemon 参数运行 BuildTools+ 即可将构建交给守护进程。");
+            // a request owns System.err while it runs, the complaints about other connections go to our console
+            final PrintStream console = System.err;
+            // every connection gets its own thread, so a client that sends nothing cannot hold up the others
+            final AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "Daemon-Request-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                while (true) {
+                    Socket accepted = server.accept();
+                    executor.execute(() -> {
+                        try (Socket socket = accepted) {
+                            handle(socket, token);
+                        } catch (SocketTimeoutException e) {
+                            console.println("客户端未及时发送请求，已断开连接。");
+                        } catch (IOException e) {
+                            console.println("处理请求时连接中断: " + e.getMessage());
+                        }
+                    });
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            new File(Main.DATA_DIR, "daemon.json").delete();
+            serving = false;
+        }
+    }
+
+    private static void handle(Socket socket, String token) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        if (!token.equals(in.readUTF())) {
+            sendExit(out, 1); // not from someone who can read our running directory
+            return;
+        }
+        int count = in.readInt();
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            args.add(in.readUTF());
+        }
+        socket.setSoTimeout(0); // a build takes as long as it takes
+        synchronized (REQUEST_LOCK) {
+            run(out, args);
+        }
+    }
+
+    private static void run(DataOutputStream out, List<String> args) throws IOException {
+        if (!args.contains("--start-directly")) {
+            args.add("--start-directly"); // nobody could answer the question
+        }
+        System.out.println("收到构建请求: " + String.join(" ", args));
+
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        int exitCode;
+        long start = System.currentTimeMillis();
+        try (PrintStream requestOut = new PrintStream(new FrameOutputStream(out, STDOUT), true);
+             PrintStream requestErr = new PrintStream(new FrameOutputStream(out, STDERR), true)) {
+            System.setOut(requestOut);
+            System.setErr(requestErr);
+            try {
+                exitCode = Main.run(args.toArray(new String[0]));
+            } catch (Throwable e) {
+                e.printStackTrace();
+                exitCode = 1;
+            } finally {
+                System.setOut(originalOut);
+                System.setErr(originalErr);
+            }
+        }
+        sendExit(out, exitCode);
+        System.out.println("请求已完成，退出码 " + exitCode + " ，用时 " + (System.currentTimeMillis() - start) / 1000 + " 秒。");
+    }
+
+    private static void sendExit(DataOutputStream out, int exitCode) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+
+    // Sends the arguments to the daemon of this running directory and relays its output.
+    // Returns the exit code of the request.
+    public static int send(List<String> args) throws IOException {
+        Info info = readInfo();
+        if (info == null) {
+            System.err.println("找不到在此运行目录中启动的守护进程。请先使用 --daemon 参数启动守护进程。");
+            return 1;
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), info.port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(info.token);
+            out.writeInt(args.size());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                int type = in.readUnsignedByte();
+                if (type == EXIT) {
+                    return in.readInt();
+                }
+                int length = in.readInt();
+                PrintStream target = type == STDERR ? System.err : System.out;
+                while (length > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, length));
+                    if (read == -1) {
+                        throw new EOFException();
+                    }
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                target.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("守护进程在请求完成前断开了连接。");
+            return 1;
+        } catch (IOException e) {
+            System.err.println("无法连接到守护进程 (端口 " + info.port + "): " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static void writeInfo(int port, String token) throws IOException {
+        File file = new File(Main.DATA_DIR, "daemon.json");
+        file.getParentFile().mkdirs();
+        Info info = new Info();
+        info.port = port;
+        info.token = token;
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(info, writer);
+        }
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-------"));
+        }
+    }
+
+    private static Info readInfo() {
+        File file = new File(Main.DATA_DIR, "daemon.json");
+        if (!file.isFile()) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, Info.class);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    // Both streams of a request write into the same socket, a frame is written as a whole.
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int type;
+
+        private FrameOutputStream(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(length);
+                out.write(data, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush(); // the socket is closed by the daemon
+        }
+    }
+
+    private static class Info {
+        private int port;
+        private String token;
+    }
+}
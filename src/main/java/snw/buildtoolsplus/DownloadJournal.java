@@ -0,0 +1,149 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The sidecar of a <code>.part</code> file.
+ * Remembers where the data came from and which byte ranges are already on disk,
+ *  so an interrupted download can continue instead of starting from byte zero.
+ *
+ * @author SNWCreations
+ */
+public class DownloadJournal {
+    private static final Gson GSON = new Gson();
+
+    private String url;
+    private String sha1;
+    private String etag;
+    private String lastModified;
+    private long length;
+    // sorted, non-overlapping, inclusive [from, to] pairs
+    private List<long[]> completed = new ArrayList<>();
+
+    public DownloadJournal(String url, String sha1, String etag, String lastModified, long length) {
+        this.url = url;
+        this.sha1 = sha1;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.length = length;
+    }
+
+    public static DownloadJournal load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            DownloadJournal journal = GSON.fromJson(reader, DownloadJournal.class);
+            if (journal != null && journal.completed == null) {
+                journal.completed = new ArrayList<>();
+            }
+            return journal;
+        } catch (IOException | JsonParseException e) {
+            return null; // a broken journal is as good as no journal
+        }
+    }
+
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // True if the data described by this journal is the data the server offers now.
+    // We need at least one way to tell (a validator or the expected hash), otherwise we refuse to resume.
+    public boolean matches(String url, String sha1, String etag, String lastModified, long length) {
+        if (!Objects.equals(this.url, url) || this.length != length
+                || (this.sha1 == null ? sha1 != null : !this.sha1.equalsIgnoreCase(sha1))) {
+            return false;
+        }
+        if (this.etag != null && etag != null) {
+            return this.etag.equals(etag);
+        }
+        if (this.lastModified != null && lastModified != null) {
+            return this.lastModified.equals(lastModified);
+        }
+        return sha1 != null;
+    }
+
+    public synchronized void markCompleted(long from, long to) {
+        List<long[]> merged = new ArrayList<>(completed.size() + 1);
+        long start = from;
+        long end = to;
+        boolean placed = false;
+        for (long[] range : completed) {
+            if (range[1] + 1 < start) {
+                merged.add(range);
+            } else if (end + 1 < range[0]) {
+                if (!placed) {
+                    merged.add(new long[]{start, end});
+                    placed = true;
+                }
+                merged.add(range);
+            } else { // overlapping or adjacent, swallow it
+                start = Math.min(start, range[0]);
+                end = Math.max(end, range[1]);
+            }
+        }
+        if (!placed) {
+            merged.add(new long[]{start, end});
+        }
+        completed = merged;
+    }
+
+    public synchronized List<long[]> getMissingRanges() {
+        List<long[]> missing = new ArrayList<>();
+        long next = 0;
+        for (long[] range : completed) {
+            if (range[0] > next) {
+                missing.add(new long[]{next, range[0] - 1});
+            }
+            next = range[1] + 1;
+        }
+        if (next < length) {
+            missing.add(new long[]{next, length - 1});
+        }
+        return missing;
+    }
+
+    // The first byte in [from, to] that is not on disk yet, or to + 1 if there is none.
+    public synchronized long getFirstMissing(long from, long to) {
+        long position = from;
+        for (long[] range : completed) {
+            if (range[0] <= position && position <= range[1]) {
+                position = range[1] + 1;
+            }
+        }
+        return Math.min(position, to + 1);
+    }
+
+    // The number of bytes that are complete from the very beginning of the file without a hole.
+    public synchronized long getContiguousLength() {
+        return completed.isEmpty() || completed.get(0)[0] != 0 ? 0 : completed.get(0)[1] + 1;
+    }
+
+    public synchronized long getCompletedBytes() {
+        long total = 0;
+        for (long[] range : completed) {
+            total += range[1] - range[0] + 1;
+        }
+        return total;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,143 @@
+package snw.buildtoolsplus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the network between everything we download at the same time.
+ * Every connection needs a permit first. There are at most <code>Main.MAX_CONNECTIONS</code> of them,
+ *  and when they are all in use, the waiting connection with the highest priority gets the next one,
+ *  so the files the build is waiting for are not stuck behind the ones it can do without for a while.
+ * The received data passes a token bucket, which keeps the total rate under <code>Main.DOWNLOAD_LIMIT</code>.
+ * <p>
+ * A connection that is closed after its response has been read completely (instead of being disconnected)
+ *  goes back into the keep-alive cache of the JVM, the next request to the same host reuses it.
+ *
+ * @author SNWCreations
+ */
+public class DownloadManager {
+    // what the build itself is waiting for, e.g. the server jar
+    public static final int PRIORITY_CRITICAL = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    // what only makes a later step faster, e.g. the prefetched Maven dependencies
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final PriorityQueue<Waiter> WAITING = new PriorityQueue<>();
+    private static long nextSequence;
+    private static int activeConnections;
+
+    private static final Object BUCKET_LOCK = new Object();
+    // may go below 0, the one who took too much sleeps until it is paid back
+    private static double tokens;
+    private static long refilledAt = System.nanoTime();
+
+    // Opens the connection with our timeouts. The caller must hold a permit while using it.
+    public static URLConnection open(URL url) throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(Main.CONNECT_TIMEOUT_MILLIS);
+        conn.setReadTimeout(Main.READ_TIMEOUT_MILLIS);
+        return conn;
+    }
+
+    // Waits until a connection may be opened. Use it with try-with-resources, the permit is returned on close.
+    public static Permit acquire(int priority) throws InterruptedIOException {
+        synchronized (WAITING) {
+            Waiter waiter = new Waiter(priority, nextSequence++);
+            WAITING.add(waiter);
+            try {
+                while (WAITING.peek() != waiter || activeConnections >= Main.MAX_CONNECTIONS) {
+                    WAITING.wait();
+                }
+            } catch (InterruptedException e) {
+                WAITING.remove(waiter);
+                WAITING.notifyAll(); // we may have been the head
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待下载连接时被中断");
+            }
+            WAITING.poll();
+            activeConnections++;
+            WAITING.notifyAll(); // the next one may fit as well
+            return new Permit();
+        }
+    }
+
+    // Called with every block received, sleeps if we are faster than the limit.
+    public static void throttle(int bytes) throws InterruptedIOException {
+        long limit = Main.DOWNLOAD_LIMIT;
+        if (limit <= 0) {
+            return;
+        }
+        long sleepNanos;
+        synchronized (BUCKET_LOCK) {
+            long now = System.nanoTime();
+            // at most one second of saved up tokens, a burst must not exceed the limit by much
+            tokens = Math.min(limit, tokens + (now - refilledAt) * limit / 1e9);
+            refilledAt = now;
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return;
+            }
+            sleepNanos = (long) (-tokens * 1e9 / limit);
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("下载被中断");
+        }
+    }
+
+    // Gives the connection back to the keep-alive cache, if the server allows that.
+    // Anything the response still has is small (we read it completely) or the connection is not worth keeping.
+    public static void release(HttpURLConnection http) {
+        try {
+            InputStream in = http.getInputStream();
+            in.close();
+        } catch (IOException e) {
+            http.disconnect();
+        }
+    }
+
+    public static class Permit implements AutoCloseable {
+        private boolean closed;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            synchronized (WAITING) {
+                if (!closed) {
+                    closed = true;
+                    activeConnections--;
+                    WAITING.notifyAll();
+                }
+            }
+        }
+    }
+
+    // the same priority is served in the order of arrival
+    private static class Waiter implements Comparable<Waiter> {
+        private final int priority;
+        private final long sequence;
+
+        private Waiter(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -1,54 +1,505 @@
 package snw.buildtoolsplus;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static snw.buildtoolsplus.Util.getFileDigest;
+import static snw.buildtoolsplus.Util.toHex;
 
 public class FileDownload {
-    private final URL remoteUrl;
+    // files smaller than two segments of this size are not worth splitting
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // how often the journal of a running download is written to disk
+    private static final long JOURNAL_SAVE_INTERVAL_MILLIS = 1000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 2000;
+
+    // the same file on different mirrors, best first
+    private final List<URL> remoteUrls;
+    private final AtomicInteger mirrorIndex = new AtomicInteger();
     private final String localPath;
     private final String sha1;
+    private final File partFile;
+    private final File journalFile;
+    private int priority = DownloadManager.PRIORITY_NORMAL;
+    private long lastJournalSave;
+    // set when one segment failed, so the others stop at the next buffer instead of being interrupted
+    //  (an interrupt would close the shared channel before we could save the journal)
+    private volatile boolean cancelled;
+    // bytes received from the network in this run, and what the previous runs left us
+    private final AtomicLong received = new AtomicLong();
+    private long resumedBytes;
+    private long expectedLength = -1;
+    private long startedAt;
+    private long lastProgressReport;
 
     public FileDownload(String remoteUrl, String localPath, String sha1) throws MalformedURLException {
-        this.remoteUrl = new URL(remoteUrl);
+        this(Collections.singletonList(remoteUrl), localPath, sha1);
+    }
+
+    public FileDownload(List<String> remoteUrls, String localPath, String sha1) throws MalformedURLException {
+        if (remoteUrls.isEmpty()) {
+            throw new IllegalArgumentException("No URL to download " + localPath + " from");
+        }
+        this.remoteUrls = new ArrayList<>(remoteUrls.size());
+        for (String remoteUrl : remoteUrls) {
+            this.remoteUrls.add(new URL(remoteUrl));
+        }
         this.localPath = localPath;
         this.sha1 = sha1;
+        this.partFile = new File(localPath + ".part");
+        this.journalFile = new File(localPath + ".part.json");
     }
 
-    public void start() {
-        // 下载网络文件
-        int byteread;
+    // DownloadManager.PRIORITY_*, decides who gets a connection first when they are all in use
+    public FileDownload priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
 
-        try (FileOutputStream fs = new FileOutputStream(localPath)) {
-            URLConnection conn = remoteUrl.openConnection();
-            InputStream inStream = conn.getInputStream();
+    public void start() {
+        String name = new File(localPath).getName();
+        startedAt = System.currentTimeMillis();
+        lastProgressReport = startedAt; // small files finish before the first report
+        try (Metrics.Timer timer = Metrics.start("download", name)) {
+            try {
+                download();
+                timer.succeeded();
+            } finally {
+                timer.addBytes(received.get());
+            }
+            long millis = Math.max(timer.getElapsedMillis(), 1);
+            System.out.println("下载完成 " + name + " : " + Metrics.formatBytes(received.get()) + " , 用时 "
+                    + String.format("%.1f", millis / 1000.0) + " 秒, 平均 " + Metrics.formatRate(received.get() * 1000 / millis));
+        }
+    }
 
-            byte[] buffer = new byte[1204];
-            while ((byteread = inStream.read(buffer)) != -1) {
-                fs.write(buffer, 0, byteread);
+    private void download() {
+        // 下载网络文件
+        // The SHA-1 is calculated while the data arrives, so the file is not read again just to check it.
+        final String digest;
+        try {
+            RemoteInfo info = probe();
+            if (info.length > 0) {
+                digest = downloadRanges(info);
+            } else {
+                digest = downloadSingle();
             }
         } catch (IOException e) {
             throw new RuntimeException("在下载文件 " + new File(localPath).getName() + " 时出现错误: " + e.getMessage(), e);
             // we cannot do anything while an exception thrown.
             // So we should throw a new exception and replace the error message to Chinese version
             //  so that user can know the program is failed.
+            // The .part file and its journal are kept, the next run will continue from there.
         }
 
         if (sha1 != null) { // if sha-1 is null, ignore check.
-            final String digest = getFileDigest(new File(localPath), "sha-1");
-            assert digest != null; // impossible! unless some critical exception happen.
             if (!Objects.equals(digest.toLowerCase(), sha1.toLowerCase())) {
+                // the partial data is useless now, the next attempt must start over
+                partFile.delete();
+                journalFile.delete();
                 throw new RuntimeException("下载的文件可能损坏，实际的 SHA-1 与提供的 SHA-1 不一致。实际是: " + digest + ", 期望得到: " + sha1);
             }
         }
+
+        try {
+            moveIntoPlace();
+        } catch (IOException e) {
+            throw new RuntimeException("无法将下载的文件移动到 " + localPath + " : " + e.getMessage(), e);
+        }
+        journalFile.delete();
+        HashCache.put(new File(localPath), digest);
+    }
+
+    private void moveIntoPlace() throws IOException {
+        try {
+            Files.move(partFile.toPath(), new File(localPath).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile.toPath(), new File(localPath).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Moves every later request of this download to the next mirror, unless another thread already did.
+    // Throws the original error if there is no mirror left.
+    private void failOver(int failedIndex, IOException error) throws IOException {
+        if (failedIndex + 1 >= remoteUrls.size()) {
+            throw error;
+        }
+        if (mirrorIndex.compareAndSet(failedIndex, failedIndex + 1)) {
+            System.out.println("从 " + remoteUrls.get(failedIndex).getHost() + " 下载 " + new File(localPath).getName()
+                    + " 失败 (" + error.getMessage() + ")，切换到 " + remoteUrls.get(failedIndex + 1).getHost());
+        }
+    }
+
+    private RemoteInfo probe() throws IOException {
+        while (true) {
+            int index = mirrorIndex.get();
+            try {
+                return probe(remoteUrls.get(index));
+            } catch (IOException e) {
+                failOver(index, e);
+            }
+        }
+    }
+
+    // Asks for the first byte only. A 206 answer with a Content-Range tells us both that
+    //  the server (or the mirror in front of it) accepts byte ranges and how large the file is.
+    // The length stays -1 if ranges cannot be used.
+    private RemoteInfo probe(URL remoteUrl) throws IOException {
+        RemoteInfo info = new RemoteInfo();
+        DownloadManager.Permit permit = DownloadManager.acquire(priority);
+        try {
+            URLConnection conn = DownloadManager.open(remoteUrl);
+            if (!(conn instanceof HttpURLConnection)) {
+                return info;
+            }
+            HttpURLConnection http = (HttpURLConnection) conn;
+            http.setRequestProperty("Range", "bytes=0-0");
+            boolean partial = false;
+            try {
+                partial = http.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+                if (!partial || "none".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"))) {
+                    return info;
+                }
+                String contentRange = http.getHeaderField("Content-Range"); // bytes 0-0/<total>
+                if (contentRange == null || contentRange.endsWith("/*")) {
+                    return info;
+                }
+                info.etag = http.getHeaderField("ETag");
+                info.lastModified = http.getHeaderField("Last-Modified");
+                info.length = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+            } catch (NumberFormatException e) {
+                info.length = -1;
+            } finally {
+                if (partial) {
+                    DownloadManager.release(http); // one byte, the ranges will go through the same connection
+                } else {
+                    http.disconnect(); // the whole file may be coming
+                }
+            }
+            return info;
+        } finally {
+            permit.close();
+        }
+    }
+
+    // No ranges, no resume. Start over into a fresh .part file (also when we have to switch to another mirror).
+    private String downloadSingle() throws IOException {
+        journalFile.delete();
+        while (true) {
+            int index = mirrorIndex.get();
+            try {
+                return downloadSingle(remoteUrls.get(index));
+            } catch (IOException e) {
+                failOver(index, e);
+            }
+        }
+    }
+
+    private String downloadSingle(URL remoteUrl) throws IOException {
+        int byteread;
+        MessageDigest digest = newSha1Digest();
+        // what an earlier mirror sent has been thrown away with the .part file, it must not count
+        received.set(0);
+        startedAt = System.currentTimeMillis();
+
+        DownloadManager.Permit permit = DownloadManager.acquire(priority);
+        try {
+            URLConnection conn = DownloadManager.open(remoteUrl);
+            try (FileOutputStream fs = new FileOutputStream(partFile);
+                 InputStream inStream = conn.getInputStream()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long length = 0;
+                while ((byteread = inStream.read(buffer)) != -1) {
+                    fs.write(buffer, 0, byteread);
+                    digest.update(buffer, 0, byteread);
+                    progress(byteread);
+                    DownloadManager.throttle(byteread);
+                    length += byteread;
+                }
+                // without a SHA-1 to check, a connection closed early would pass as a complete file
+                if (conn.getContentLengthLong() >= 0 && length != conn.getContentLengthLong()) {
+                    throw new IOException("连接提前关闭，只收到 " + length + " / " + conn.getContentLengthLong() + " 字节");
+                }
+            }
+        } finally {
+            permit.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private String downloadRanges(RemoteInfo info) throws IOException {
+        String url = remoteUrls.get(0).toString(); // the journal belongs to the file, not to the mirror we used
+        DownloadJournal journal = DownloadJournal.load(journalFile);
+        if (journal == null || !partFile.isFile() || partFile.length() != info.length
+                || !journal.matches(url, sha1, info.etag, info.lastModified, info.length)) {
+            partFile.delete();
+            journal = new DownloadJournal(url, sha1, info.etag, info.lastModified, info.length);
+        } else if (journal.getCompletedBytes() > 0) {
+            System.out.println("继续上次未完成的下载 " + new File(localPath).getName() + " ，已完成 "
+                    + journal.getCompletedBytes() * 100 / info.length + "%");
+        }
+
+        expectedLength = info.length;
+        resumedBytes = journal.getCompletedBytes();
+
+        List<long[]> segments = splitSegments(journal.getMissingRanges());
+        segments.sort(Comparator.comparingLong(segment -> segment[0])); // the front segment feeds the digest directly
+
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(info.length); // preallocate, every segment writes into its own region
+            final FileChannel channel = file.getChannel();
+            final DownloadJournal finalJournal = journal;
+            final OrderedDigest digest = new OrderedDigest(newSha1Digest());
+            digest.catchUp(channel, finalJournal.getContiguousLength()); // data from the previous run
+            if (segments.isEmpty()) {
+                digest.catchUp(channel, info.length);
+                return digest.finish();
+            }
+            finalJournal.save(journalFile);
+            cancelled = false;
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(segments.size(), Main.DOWNLOAD_CONNECTIONS), r -> {
+                Thread thread = new Thread(r, "Download-" + new File(localPath).getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (long[] segment : segments) {
+                    futures.add(executor.submit((Callable<Void>) () -> {
+                        downloadRange(channel, finalJournal, digest, segment[0], segment[1]);
+                        // the prefix may have reached data that the following segment wrote early
+                        digest.catchUp(channel, finalJournal.getContiguousLength());
+                        return null;
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+                digest.catchUp(channel, info.length);
+                return digest.finish();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("下载被中断", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            } finally {
+                cancelled = true;
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (channel.isOpen()) {
+                    channel.force(false);
+                    finalJournal.save(journalFile); // whatever happened, remember what we have got
+                }
+            }
+        }
+    }
+
+    // Cuts the missing ranges into at most DOWNLOAD_CONNECTIONS pieces, biggest ranges first.
+    private List<long[]> splitSegments(List<long[]> missing) {
+        List<long[]> segments = new ArrayList<>(missing);
+        while (segments.size() < Main.DOWNLOAD_CONNECTIONS) {
+            long[] largest = null;
+            for (long[] range : segments) {
+                if (largest == null || range[1] - range[0] > largest[1] - largest[0]) {
+                    largest = range;
+                }
+            }
+            if (largest == null || largest[1] - largest[0] + 1 < MIN_SEGMENT_SIZE * 2) {
+                break;
+            }
+            long middle = largest[0] + (largest[1] - largest[0] + 1) / 2;
+            segments.remove(largest);
+            segments.add(new long[]{largest[0], middle - 1});
+            segments.add(new long[]{middle, largest[1]});
+        }
+        return segments;
+    }
+
+    // A stalled or broken mirror does not fail the segment.
+    // What has been written is kept (the journal knows it), the rest is fetched from the next mirror.
+    private void downloadRange(FileChannel channel, DownloadJournal journal, OrderedDigest digest, long from, long to) throws IOException {
+        long position;
+        while ((position = journal.getFirstMissing(from, to)) <= to) {
+            int index = mirrorIndex.get();
+            try {
+                downloadRange(remoteUrls.get(index), channel, journal, digest, position, to);
+            } catch (IOException e) {
+                if (cancelled) {
+                    throw e;
+                }
+                failOver(index, e);
+            }
+        }
+    }
+
+    private void downloadRange(URL remoteUrl, FileChannel channel, DownloadJournal journal, OrderedDigest digest, long from, long to) throws IOException {
+        DownloadManager.Permit permit = DownloadManager.acquire(priority);
+        try {
+            downloadRange0(remoteUrl, channel, journal, digest, from, to);
+        } finally {
+            permit.close();
+        }
+    }
+
+    private void downloadRange0(URL remoteUrl, FileChannel channel, DownloadJournal journal, OrderedDigest digest, long from, long to) throws IOException {
+        HttpURLConnection http = (HttpURLConnection) DownloadManager.open(remoteUrl);
+        http.setRequestProperty("Range", "bytes=" + from + "-" + to);
+        boolean complete = false;
+        try {
+            if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("服务器没有按分段返回数据 (HTTP " + http.getResponseCode() + ")");
+            }
+            long position = from;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            try (InputStream in = http.getInputStream()) {
+                while (position <= to && (len = in.read(buffer)) != -1) {
+                    if (cancelled) {
+                        throw new IOException("下载已取消");
+                    }
+                    long start = position;
+                    int count = (int) Math.min(len, to - position + 1);
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                    while (data.hasRemaining()) {
+                        position += channel.write(data, position);
+                    }
+                    journal.markCompleted(start, position - 1);
+                    digest.offer(buffer, count, start);
+                    progress(count);
+                    saveJournalPeriodically(channel, journal);
+                    DownloadManager.throttle(count);
+                }
+                complete = position == to + 1;
+            }
+            if (!complete) {
+                throw new IOException("分段 " + from + "-" + to + " 不完整，连接提前关闭");
+            }
+        } finally {
+            if (!complete) {
+                http.disconnect(); // there may be data left we do not want
+            }
+        }
     }
 
+    // Called by every connection after each buffer, prints at most one line per interval.
+    private void progress(int count) {
+        long total = received.addAndGet(count);
+        long now = System.currentTimeMillis();
+        synchronized (received) {
+            if (now - lastProgressReport < PROGRESS_INTERVAL_MILLIS) {
+                return;
+            }
+            lastProgressReport = now;
+        }
+        String rate = Metrics.formatRate(total * 1000 / Math.max(now - startedAt, 1));
+        String name = new File(localPath).getName();
+        if (expectedLength > 0) {
+            long done = Math.min(resumedBytes + total, expectedLength);
+            System.out.println("  " + name + " : " + done * 100 / expectedLength + "% (" + Metrics.formatBytes(done) + " / "
+                    + Metrics.formatBytes(expectedLength) + ") , " + rate);
+        } else {
+            System.out.println("  " + name + " : " + Metrics.formatBytes(total) + " , " + rate);
+        }
+    }
+
+    private void saveJournalPeriodically(FileChannel channel, DownloadJournal journal) throws IOException {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastJournalSave < JOURNAL_SAVE_INTERVAL_MILLIS) {
+                return;
+            }
+            lastJournalSave = now;
+            channel.force(false); // the journal must never claim bytes that are not on disk
+            journal.save(journalFile);
+        }
+    }
+
+    private static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance("sha-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM has SHA-1
+        }
+    }
+
+    // Feeds the digest strictly in file order.
+    // Bytes that arrive right at the end of the hashed prefix are hashed from the network buffer.
+    // Bytes that arrived early (written by a later segment, or by an earlier run) are read back
+    //  from the file once the prefix reaches them, usually while they are still in the page cache.
+    private static class OrderedDigest {
+        private final MessageDigest digest;
+        private long hashed;
 
+        private OrderedDigest(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        private synchronized void offer(byte[] buffer, int len, long position) {
+            if (position == hashed) {
+                digest.update(buffer, 0, len);
+                hashed += len;
+            }
+        }
+
+        private synchronized void catchUp(FileChannel channel, long upTo) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (hashed < upTo) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, upTo - hashed));
+                int read = channel.read(buffer, hashed);
+                if (read < 0) {
+                    throw new EOFException("文件比预期的短");
+                }
+                digest.update(buffer.array(), 0, read);
+                hashed += read;
+            }
+        }
+
+        private synchronized String finish() {
+            return toHex(digest.digest());
+        }
+    }
+
+    private static class RemoteInfo {
+        private long length = -1;
+        private String etag;
+        private String lastModified;
+    }
 }
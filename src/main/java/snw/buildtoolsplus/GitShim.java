@@ -0,0 +1,696 @@
+package snw.buildtoolsplus;
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.CheckoutCommand;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.CommitCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.SystemReader;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A <code>git</code> command for machines without Git, backed by JGit.
+ * BuildTools and the patch scripts it runs (applyPatches.sh) only use a few commands:
+ *  clone, fetch, checkout, reset, branch, remote, config, add, commit, rev-parse, apply and am.
+ * {@link #install(File)} writes <code>git</code> and <code>git.cmd</code> scripts that start this class,
+ *  the directory is put in front of the PATH of BuildTools, so it finds them instead of a real Git.
+ * <p>
+ * Everything else is refused with an error, so a build that needs more fails loudly instead of going wrong.
+ * The shell BuildTools needs for the scripts is not provided, <code>sh</code> must exist.
+ *
+ * @author SNWCreations
+ */
+public class GitShim {
+    // "git --version" is parsed by some scripts, keep it in the usual form
+    private static final String VERSION = "git version 2.30.0.jgit";
+    private static final Pattern IDENT = Pattern.compile("^(.*?)\\s*<(.*)>$");
+
+    private File workDir = new File(System.getProperty("user.dir"));
+
+    public static void main(String[] args) {
+        quietLogging();
+        int exitCode;
+        try {
+            exitCode = new GitShim().run(new ArrayList<>(Arrays.asList(args)));
+        } catch (ShimException e) {
+            System.err.println(e.getMessage());
+            exitCode = e.exitCode;
+        } catch (Exception e) {
+            System.err.println("fatal: " + e.getMessage());
+            exitCode = 128;
+        }
+        System.exit(exitCode);
+    }
+
+    // JGit logs through SLF4J, which complains about the missing binding on every start, in the middle of the output of the scripts.
+    private static void quietLogging() {
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            LoggerFactory.getILoggerFactory();
+        } finally {
+            System.setErr(err);
+        }
+    }
+
+    // Writes the scripts into directory, they start this class with the JVM and the class path we are running with.
+    public static void install(File directory) throws IOException {
+        directory.mkdirs();
+        File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath()); // BuildTools runs in another directory
+        }
+        // startup time matters more than peak speed, the patch scripts call us many times
+        String command = "\"" + java.getAbsolutePath() + "\" -XX:TieredStopAtLevel=1 -cp \"" + String.join(File.pathSeparator, classPath) + "\" " + GitShim.class.getName();
+
+        File script = new File(directory, "git");
+        write(script, "#!/bin/sh\n# Generated by BuildTools+, the Git commands BuildTools needs, done by JGit.\nexec " + command + " \"$@\"\n");
+        script.setExecutable(true);
+        write(new File(directory, "git.cmd"), "@echo off\r\nrem Generated by BuildTools+, the Git commands BuildTools needs, done by JGit.\r\n" + command + " %*\r\n");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+
+    private int run(List<String> args) throws Exception {
+        // global options before the command
+        while (!args.isEmpty() && args.get(0).startsWith("-")) {
+            String option = args.remove(0);
+            switch (option) {
+                case "--version":
+                    System.out.println(VERSION);
+                    return 0;
+                case "-C":
+                    workDir = resolve(next(args, option));
+                    break;
+                case "-c":
+                    next(args, option); // e.g. commit.gpgsign=false, JGit does not sign or convert anyway
+                    break;
+                default:
+                    throw unsupported(option);
+            }
+        }
+        if (args.isEmpty()) {
+            throw new ShimException("usage: git <command> [<args>]", 1);
+        }
+        String command = args.remove(0);
+        switch (command) {
+            case "version":
+                System.out.println(VERSION);
+                return 0;
+            case "init":
+                return init(args);
+            case "clone":
+                return clone(args);
+            case "config":
+                return config(args);
+            case "fetch":
+                return fetch(args);
+            case "remote":
+                return remote(args);
+            case "branch":
+                return branch(args);
+            case "checkout":
+                return checkout(args);
+            case "reset":
+                return reset(args);
+            case "add":
+                return add(args);
+            case "commit":
+                return commit(args);
+            case "rev-parse":
+                return revParse(args);
+            case "apply":
+                return apply(args);
+            case "am":
+                return am(args);
+            default:
+                throw unsupported(command);
+        }
+    }
+
+    private int init(List<String> args) throws Exception {
+        skipFlags(args, "-q", "--quiet");
+        File directory = args.isEmpty() ? workDir : resolve(args.get(0));
+        Git.init().setDirectory(directory).call().close();
+        return 0;
+    }
+
+    private int clone(List<String> args) throws Exception {
+        CloneCommand clone = Git.cloneRepository();
+        List<String> positional = new ArrayList<>();
+        while (!args.isEmpty()) {
+            String arg = args.remove(0);
+            if (arg.equals("-b") || arg.equals("--branch")) {
+                clone.setBranch(next(args, arg));
+            } else if (arg.equals("-q") || arg.equals("--quiet")) {
+                continue;
+            } else if (arg.startsWith("-")) {
+                throw unsupported("clone " + arg); // --depth among others, JGit 5 cannot do it
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.isEmpty()) {
+            throw new ShimException("fatal: You must specify a repository to clone.", 128);
+        }
+        String url = positional.get(0);
+        File local = resolve(url);
+        if (local.isDirectory()) {
+            url = local.getAbsolutePath(); // a local path is relative to where we were started, not to the JVM
+        }
+        String name = url.replaceAll("[/\\\\]+$", "");
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1).replaceAll("\\.git$", "");
+        File directory = positional.size() > 1 ? resolve(positional.get(1)) : resolve(name);
+        System.err.println("Cloning into '" + directory.getName() + "'...");
+        clone.setURI(url).setDirectory(directory).call().close();
+        return 0;
+    }
+
+    private int config(List<String> args) throws Exception {
+        boolean global = false;
+        boolean unset = false;
+        while (!args.isEmpty() && args.get(0).startsWith("--")) {
+            String option = args.remove(0);
+            if (option.equals("--global")) {
+                global = true;
+            } else if (option.equals("--unset")) {
+                unset = true;
+            } else if (!option.equals("--includes")) {
+                throw unsupported("config " + option);
+            }
+        }
+        if (args.isEmpty()) {
+            throw new ShimException("error: key does not contain a section", 2);
+        }
+        StoredConfig config;
+        Repository repository = null;
+        if (global) {
+            config = SystemReader.getInstance().openUserConfig(null, FS.DETECTED);
+            config.load();
+        } else {
+            repository = openRepository();
+            config = repository.getConfig();
+        }
+        try {
+            String[] key = splitKey(args.get(0));
+            if (unset) {
+                config.unset(key[0], key[1], key[2]);
+                config.save();
+            } else if (args.size() > 1) {
+                config.setString(key[0], key[1], key[2], args.get(1));
+                config.save();
+            } else {
+                String value = config.getString(key[0], key[1], key[2]);
+                if (value == null) {
+                    return 1;
+                }
+                System.out.println(value);
+            }
+            return 0;
+        } finally {
+            if (repository != null) {
+                repository.close();
+            }
+        }
+    }
+
+    // section[.subsection].name
+    private static String[] splitKey(String key) throws ShimException {
+        int first = key.indexOf('.');
+        int last = key.lastIndexOf('.');
+        if (first <= 0 || last == key.length() - 1) {
+            throw new ShimException("error: key does not contain a section: " + key, 2);
+        }
+        return new String[]{key.substring(0, first), first == last ? null : key.substring(first + 1, last), key.substring(last + 1)};
+    }
+
+    private int fetch(List<String> args) throws Exception {
+        skipFlags(args, "-q", "--quiet");
+        try (Git git = openGit()) {
+            git.fetch().setRemote(args.isEmpty() ? Constants.DEFAULT_REMOTE_NAME : args.get(0)).call();
+        }
+        return 0;
+    }
+
+    private int remote(List<String> args) throws Exception {
+        if (args.isEmpty()) {
+            throw unsupported("remote");
+        }
+        String action = args.remove(0);
+        try (Git git = openGit()) {
+            switch (action) {
+                case "add":
+                    if (args.size() < 2) {
+                        throw new ShimException("usage: git remote add <name> <url>", 129);
+                    }
+                    if (git.getRepository().getConfig().getSubsections("remote").contains(args.get(0))) {
+                        throw new ShimException("fatal: remote " + args.get(0) + " already exists.", 3);
+                    }
+                    git.remoteAdd().setName(args.get(0)).setUri(new URIish(args.get(1))).call();
+                    return 0;
+                case "rm":
+                case "remove":
+                    if (args.isEmpty() || !git.getRepository().getConfig().getSubsections("remote").contains(args.get(0))) {
+                        throw new ShimException("fatal: No such remote: " + (args.isEmpty() ? "" : args.get(0)), 2);
+                    }
+                    git.remoteRemove().setRemoteName(args.get(0)).call();
+                    return 0;
+                default:
+                    throw unsupported("remote " + action);
+            }
+        }
+    }
+
+    private int branch(List<String> args) throws Exception {
+        boolean force = false;
+        boolean delete = false;
+        while (!args.isEmpty() && args.get(0).startsWith("-")) {
+            String option = args.remove(0);
+            if (option.equals("-f") || option.equals("--force")) {
+                force = true;
+            } else if (option.equals("-D")) {
+                delete = true;
+                force = true;
+            } else if (option.equals("-d") || option.equals("--delete")) {
+                delete = true;
+            } else {
+                throw unsupported("branch " + option);
+            }
+        }
+        if (args.isEmpty()) {
+            throw unsupported("branch"); // listing
+        }
+        try (Git git = openGit()) {
+            if (delete) {
+                git.branchDelete().setBranchNames(args.toArray(new String[0])).setForce(force).call();
+            } else {
+                git.branchCreate().setName(args.get(0)).setStartPoint(args.size() > 1 ? args.get(1) : Constants.HEAD).setForce(force).call();
+            }
+        }
+        return 0;
+    }
+
+    private int checkout(List<String> args) throws Exception {
+        CheckoutCommand checkout;
+        try (Git git = openGit()) {
+            checkout = git.checkout();
+            String newBranch = null;
+            boolean moveBranch = false;
+            List<String> positional = new ArrayList<>();
+            while (!args.isEmpty()) {
+                String arg = args.remove(0);
+                if (arg.equals("-b") || arg.equals("-B")) {
+                    newBranch = next(args, arg);
+                    moveBranch = arg.equals("-B");
+                } else if (arg.equals("-f") || arg.equals("--force")) {
+                    checkout.setForced(true);
+                } else if (arg.equals("-q") || arg.equals("--quiet")) {
+                    continue;
+                } else if (arg.equals("--")) {
+                    break; // paths, not supported below
+                } else if (arg.startsWith("-")) {
+                    throw unsupported("checkout " + arg);
+                } else {
+                    positional.add(arg);
+                }
+            }
+            if (!args.isEmpty()) {
+                throw unsupported("checkout -- <paths>");
+            }
+            Repository repository = git.getRepository();
+            if (newBranch != null) {
+                // -B on an existing branch moves it, JGit does that with a forced create
+                checkout.setCreateBranch(true)
+                        .setForceRefUpdate(moveBranch && repository.findRef(Constants.R_HEADS + newBranch) != null)
+                        .setName(newBranch)
+                        .setStartPoint(positional.isEmpty() ? Constants.HEAD : positional.get(0));
+            } else if (positional.isEmpty()) {
+                throw unsupported("checkout");
+            } else {
+                String name = positional.get(0);
+                // like Git, a missing local branch is created from the remote one of the same name
+                if (repository.findRef(Constants.R_HEADS + name) == null
+                        && repository.findRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + name) != null) {
+                    checkout.setCreateBranch(true).setStartPoint(Constants.DEFAULT_REMOTE_NAME + "/" + name);
+                } else if (repository.resolve(name) == null) {
+                    throw new ShimException("error: pathspec '" + name + "' did not match any file(s) known to git", 1);
+                }
+                checkout.setName(name);
+            }
+            checkout.call();
+        }
+        return 0;
+    }
+
+    private int reset(List<String> args) throws Exception {
+        try (Git git = openGit()) {
+            ResetCommand reset = git.reset().setMode(ResetCommand.ResetType.MIXED);
+            String ref = Constants.HEAD;
+            for (String arg : args) {
+                switch (arg) {
+                    case "--hard":
+                        reset.setMode(ResetCommand.ResetType.HARD);
+                        break;
+                    case "--soft":
+                        reset.setMode(ResetCommand.ResetType.SOFT);
+                        break;
+                    case "--mixed":
+                        reset.setMode(ResetCommand.ResetType.MIXED);
+                        break;
+                    case "-q":
+                    case "--quiet":
+                        break;
+                    default:
+                        if (arg.startsWith("-")) {
+                            throw unsupported("reset " + arg);
+                        }
+                        ref = arg;
+                }
+            }
+            if (git.getRepository().resolve(ref) == null) {
+                throw new ShimException("fatal: ambiguous argument '" + ref + "': unknown revision or path not in the working tree.", 128);
+            }
+            reset.setRef(ref).call();
+            ObjectId head = git.getRepository().resolve(Constants.HEAD);
+            if (args.contains("--hard") && head != null) {
+                System.out.println("HEAD is now at " + head.abbreviate(7).name());
+            }
+        }
+        return 0;
+    }
+
+    private int add(List<String> args) throws Exception {
+        boolean all = false;
+        List<String> patterns = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("-A") || arg.equals("--all")) {
+                all = true;
+            } else if (arg.equals("-u") || arg.equals("--update") || arg.equals("--")) {
+                continue;
+            } else if (arg.startsWith("-")) {
+                throw unsupported("add " + arg);
+            } else {
+                patterns.add(arg.equals(".") ? "." : arg.replace('\\', '/'));
+            }
+        }
+        if (all || patterns.isEmpty()) {
+            patterns.add(".");
+        }
+        try (Git git = openGit()) {
+            stage(git, patterns);
+        }
+        return 0;
+    }
+
+    // New and changed files, then the removed ones (AddCommand does one of them at a time).
+    private static void stage(Git git, List<String> patterns) throws Exception {
+        AddCommand add = git.add();
+        AddCommand update = git.add().setUpdate(true);
+        for (String pattern : patterns) {
+            add.addFilepattern(pattern);
+            update.addFilepattern(pattern);
+        }
+        add.call();
+        update.call();
+    }
+
+    private int commit(List<String> args) throws Exception {
+        try (Git git = openGit()) {
+            CommitCommand commit = git.commit().setSign(false).setAllowEmpty(false);
+            String message = null;
+            while (!args.isEmpty()) {
+                String arg = args.remove(0);
+                if (arg.equals("-m") || arg.equals("--message")) {
+                    message = message == null ? next(args, arg) : message + "\n\n" + next(args, arg);
+                } else if (arg.startsWith("--message=")) {
+                    message = arg.substring("--message=".length());
+                } else if (arg.equals("-a") || arg.equals("--all")) {
+                    commit.setAll(true);
+                } else if (arg.startsWith("--author=")) {
+                    commit.setAuthor(parseIdent(arg.substring("--author=".length()), new Date()));
+                } else if (arg.equals("--allow-empty")) {
+                    commit.setAllowEmpty(true);
+                } else if (arg.equals("-q") || arg.equals("--quiet") || arg.equals("--no-verify") || arg.equals("--no-gpg-sign")) {
+                    continue;
+                } else {
+                    throw unsupported("commit " + arg);
+                }
+            }
+            if (message == null) {
+                throw new ShimException("error: BuildTools+ 内置的 Git 不能打开编辑器，请使用 -m 提供提交信息。", 1);
+            }
+            commit.setMessage(message).call();
+        }
+        return 0;
+    }
+
+    private int revParse(List<String> args) throws Exception {
+        boolean shortName = false;
+        boolean abbrevRef = false;
+        List<String> refs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--short")) {
+                shortName = true;
+            } else if (arg.equals("--abbrev-ref")) {
+                abbrevRef = true;
+            } else if (arg.equals("--verify") || arg.equals("-q") || arg.equals("--quiet")) {
+                continue;
+            } else if (arg.startsWith("-")) {
+                throw unsupported("rev-parse " + arg);
+            } else {
+                refs.add(arg);
+            }
+        }
+        try (Repository repository = openRepository()) {
+            for (String ref : refs) {
+                if (abbrevRef && ref.equals(Constants.HEAD)) {
+                    String branch = repository.getFullBranch();
+                    System.out.println(branch != null && branch.startsWith(Constants.R_HEADS) ? Repository.shortenRefName(branch) : Constants.HEAD);
+                    continue;
+                }
+                ObjectId id = repository.resolve(ref);
+                if (id == null) {
+                    throw new ShimException("fatal: ambiguous argument '" + ref + "': unknown revision or path not in the working tree.", 128);
+                }
+                System.out.println(shortName ? id.abbreviate(7).name() : id.name());
+            }
+        }
+        return 0;
+    }
+
+    private int apply(List<String> args) throws Exception {
+        List<String> patches = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--ignore-whitespace") || arg.equals("--whitespace=nowarn")) {
+                continue; // the patches BuildTools applies are exact
+            }
+            if (arg.startsWith("-")) {
+                throw unsupported("apply " + arg);
+            }
+            patches.add(arg);
+        }
+        try (Git git = openGit()) {
+            for (String patch : patches) {
+                git.apply().setPatch(new ByteArrayInputStream(Files.readAllBytes(resolve(patch).toPath()))).call();
+            }
+        }
+        return 0;
+    }
+
+    // Applies the patches made by "git format-patch" one after another, each as a commit with its original author and message.
+    // There is no three-way merge, a patch that does not apply stops us, the commits made so far are kept.
+    private int am(List<String> args) throws Exception {
+        List<String> patches = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "--abort":
+                case "--skip":
+                    return 0; // we never leave an unfinished am behind
+                case "--3way":
+                case "-3":
+                case "--ignore-whitespace":
+                case "--keep-cr":
+                case "-q":
+                case "--quiet":
+                    continue;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw unsupported("am " + arg);
+                    }
+                    patches.add(arg);
+            }
+        }
+        try (Git git = openGit()) {
+            PersonIdent committer = new PersonIdent(git.getRepository());
+            for (String patch : patches) {
+                File file = resolve(patch);
+                if (!file.isFile()) {
+                    continue; // an unmatched glob of the shell, there are no patches
+                }
+                byte[] data = Files.readAllBytes(file.toPath());
+                MailPatch mail = MailPatch.parse(new String(data, StandardCharsets.UTF_8));
+                System.out.println("Applying: " + mail.subject);
+                try {
+                    git.apply().setPatch(new ByteArrayInputStream(data)).call();
+                } catch (Exception e) {
+                    throw new ShimException("error: patch failed: " + file.getName() + " (" + e.getMessage() + ")\n"
+                            + "BuildTools+ 内置的 Git 无法进行三方合并。请安装 Git 后重试。", 128);
+                }
+                stage(git, Collections.singletonList("."));
+                git.commit()
+                        .setSign(false)
+                        .setAllowEmpty(true)
+                        .setMessage(mail.message)
+                        .setAuthor(mail.author != null ? mail.author : committer)
+                        .setCommitter(committer)
+                        .call();
+            }
+        }
+        return 0;
+    }
+
+    private Git openGit() throws IOException {
+        return new Git(openRepository());
+    }
+
+    // the repository containing the working directory, like Git finds it
+    private Repository openRepository() throws IOException {
+        FileRepositoryBuilder builder = new FileRepositoryBuilder().readEnvironment().findGitDir(workDir.getAbsoluteFile());
+        if (builder.getGitDir() == null) {
+            throw new ShimException("fatal: not a git repository (or any of the parent directories): .git", 128);
+        }
+        return builder.build();
+    }
+
+    private File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(workDir, path);
+    }
+
+    private static String next(List<String> args, String option) throws ShimException {
+        if (args.isEmpty()) {
+            throw new ShimException("error: option `" + option + "' requires a value", 129);
+        }
+        return args.remove(0);
+    }
+
+    private static void skipFlags(List<String> args, String... flags) {
+        args.removeAll(Arrays.asList(flags));
+    }
+
+    private static ShimException unsupported(String what) {
+        return new ShimException("fatal: BuildTools+ 内置的 Git 不支持 'git " + what + "' 。请安装 Git 后重试。", 1);
+    }
+
+    // "Name <email>"
+    private static PersonIdent parseIdent(String text, Date when) {
+        Matcher matcher = IDENT.matcher(text.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new PersonIdent(matcher.group(1).replaceAll("^\"|\"$", ""), matcher.group(2), when, TimeZone.getDefault());
+    }
+
+    // The header of a patch made by "git format-patch", the diff itself is found by JGit.
+    private static class MailPatch {
+        private PersonIdent author;
+        private String subject = "";
+        private String message;
+
+        private static MailPatch parse(String text) {
+            MailPatch mail = new MailPatch();
+            String[] lines = text.split("\r?\n", -1);
+            String from = null;
+            Date date = new Date();
+            int i = 0;
+            // the headers, up to the first empty line
+            String header = null;
+            for (; i < lines.length && !lines[i].isEmpty(); i++) {
+                String line = lines[i];
+                if ((line.startsWith(" ") || line.startsWith("\t")) && header != null) {
+                    if (header.equals("Subject")) {
+                        mail.subject += " " + line.trim();
+                    }
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon <= 0 || line.startsWith("From ")) {
+                    header = null;
+                    continue;
+                }
+                header = line.substring(0, colon);
+                String value = line.substring(colon + 1).trim();
+                if (header.equals("From")) {
+                    from = value;
+                } else if (header.equals("Date")) {
+                    try {
+                        date = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.ENGLISH).parse(value);
+                    } catch (ParseException e) {
+                        // keep the current time
+                    }
+                } else if (header.equals("Subject")) {
+                    mail.subject = value;
+                }
+            }
+            mail.subject = mail.subject.replaceFirst("^(\\[[^]]*]\\s*)+", "");
+            // the body ends where the diffstat or the diff starts
+            StringBuilder body = new StringBuilder();
+            for (i++; i < lines.length; i++) {
+                if (lines[i].equals("---") || lines[i].startsWith("diff --git ")) {
+                    break;
+                }
+                body.append(lines[i]).append('\n');
+            }
+            String bodyText = body.toString().trim();
+            mail.message = bodyText.isEmpty() ? mail.subject + "\n" : mail.subject + "\n\n" + bodyText + "\n";
+            if (from != null) {
+                mail.author = parseIdent(from, date);
+            }
+            return mail;
+        }
+    }
+
+    private static class ShimException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int exitCode;
+
+        private ShimException(String message, int exitCode) {
+            super(message);
+            this.exitCode = exitCode;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static snw.buildtoolsplus.Util.getFileDigest;
+
+/**
+ * Remembers the SHA-1 of the files we have already checked.
+ * A file is hashed again only if its size or modification time has changed,
+ *  so cached artifacts are not read completely on every startup.
+ *
+ * @author SNWCreations
+ */
+public class HashCache {
+    private static final Gson GSON = new Gson();
+    private static final Type TYPE = new TypeToken<ConcurrentHashMap<String, Entry>>() {
+    }.getType();
+    private static Map<String, Entry> entries;
+
+    public static String getSha1(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        String key = keyOf(file);
+        Entry entry = load().get(key);
+        if (entry != null && entry.size == file.length() && entry.lastModified == file.lastModified()) {
+            return entry.sha1;
+        }
+        String digest;
+        try (Metrics.Timer timer = Metrics.start("hash", file.getName())) {
+            digest = getFileDigest(file, "sha-1");
+            if (digest != null) {
+                timer.addBytes(file.length());
+                timer.succeeded();
+                put(file, digest);
+            }
+        }
+        return digest;
+    }
+
+    public static boolean matches(File file, String expectedSha1) {
+        String actual = getSha1(file);
+        return actual != null && actual.equalsIgnoreCase(expectedSha1);
+    }
+
+    // Called by whoever has just calculated the hash of a file anyway (e.g. a finished download).
+    public static void put(File file, String sha1) {
+        Entry entry = new Entry();
+        entry.size = file.length();
+        entry.lastModified = file.lastModified();
+        entry.sha1 = sha1.toLowerCase();
+        load().put(keyOf(file), entry);
+        save();
+    }
+
+    private static String keyOf(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static File storeFile() {
+        return new File(Main.DATA_DIR, "hashes.json");
+    }
+
+    private static synchronized Map<String, Entry> load() {
+        if (entries == null) {
+            entries = new ConcurrentHashMap<>();
+            File file = storeFile();
+            if (file.isFile()) {
+                try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    Map<String, Entry> stored = GSON.fromJson(reader, TYPE);
+                    if (stored != null) {
+                        entries.putAll(stored);
+                    }
+                } catch (IOException | JsonParseException e) {
+                    // broken cache, everything will be hashed again
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static synchronized void save() {
+        File file = storeFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                GSON.toJson(entries, TYPE, writer);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // not fatal, we will just hash again next time
+            System.err.println("无法保存文件校验缓存: " + e.getMessage());
+        }
+    }
+
+    private static class Entry {
+        private long size;
+        private long lastModified;
+        private String sha1;
+    }
+}
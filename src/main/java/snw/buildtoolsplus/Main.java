@@ -8,10 +8,23 @@ import joptsimple.OptionSpec;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import static snw.buildtoolsplus.Util.*;
 
@@ -22,146 +35,676 @@ import static snw.buildtoolsplus.Util.*;
  */
 public class Main {
     public static final File CURRENT_DIR = new File(".");
+    // our own caches and state, kept apart from what BuildTools puts into the running directory.
+    // The tests and the benchmarks point it at their temporary directories with -Dbuildtoolsplus.dataDir
+    public static final File DATA_DIR = new File(System.getProperty("buildtoolsplus.dataDir", new File(CURRENT_DIR, ".buildtoolsplus").getPath()));
     public static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().startsWith("windows");
     public static JsonObject GITHUB_MIRROR_DATA;
     public static String TARGETED_MIRROR_NAME;
+    // the mirrors a download may fail over to, best first. Only the chosen one unless we are in auto mode.
+    public static List<String> GITHUB_MIRROR_RANKING = Collections.emptyList();
+    public static List<String> SERVER_JAR_SOURCE_RANKING = Collections.emptyList();
+    public static int DOWNLOAD_CONNECTIONS = 1;
+    // every download together, see DownloadManager. DOWNLOAD_LIMIT is in bytes per second, 0 - no limit
+    public static int MAX_CONNECTIONS = 8;
+    public static long DOWNLOAD_LIMIT = 0;
+    public static int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    // a server that sends nothing for this long is considered stalled
+    public static int READ_TIMEOUT_MILLIS = 30 * 1000;
+    public static long MANIFEST_TTL_MINUTES = 0;
+    // 0 - no limit
+    public static long BUILD_TIMEOUT_MINUTES = 0;
+    // how BuildTools is started, and the options of the Maven it starts (null for the defaults)
+    public static File BUILD_JAVA;
+    public static List<String> BUILD_JVM_ARGS = Collections.emptyList();
+    public static String MAVEN_OPTS;
+    public static boolean OFFLINE_MANIFEST = false;
+    // null if the artifact cache is disabled
+    public static File CACHE_DIR;
+    public static long CACHE_MAX_SIZE;
+    // the directory of the JGit backed git command put in front of the PATH of BuildTools, null if a real Git is used
+    public static File GIT_SHIM_DIR;
+
+    public static final List<String> SERVER_JAR_SOURCES = Arrays.asList("MCBBS", "BMCLAPI", "MOJANG");
+    // the directory names, the Gitee repository names are the lowercase versions of them
+    public static final List<String> REPOSITORIES = Arrays.asList("Bukkit", "CraftBukkit", "Spigot", "BuildData");
+    private static final Map<String, Object> SERVER_JAR_LOCKS = new ConcurrentHashMap<>();
+    // kept between the requests of the daemon
+    private static final Map<String, Long> REPO_UPDATED_AT = new ConcurrentHashMap<>();
+    private static volatile boolean gitChecked;
+    private static File metricsReport;
+    // a file every Github mirror should be able to serve, used for measuring them
+    private static final String MIRROR_PROBE_FILE = "https://raw.githubusercontent.com/SNWCreations/spigotversions/main/BuildTools.jar";
 
     public static void main(String[] args) throws Exception {
-        // initial information
-        String ver = Main.class.getPackage().getImplementationVersion();
-        System.out.println("正在加载 BuildTools+ , 版本 " + ver + " , 作者 SNWCreations");
-        System.out.println("Java 版本: " + System.getProperty("java.version"));
-        System.out.println("运行目录 (构建所需数据以及成品均会保存在这): " + CURRENT_DIR.getAbsolutePath());
-        System.out.println();
+        int exitCode = run(args);
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    // One invocation of BuildTools+, returns the exit code. The daemon calls this for every request it gets.
+    public static int run(String[] args) throws Exception {
+        Metrics.reset();
+        metricsReport = null;
+        try {
+            return run0(args);
+        } finally {
+            // nothing started by this run may write to the output of the next one
+            RepoSync.finishCheck();
+            Workspace.finish();
+            if (metricsReport != null) {
+                try {
+                    Metrics.writeReport(metricsReport);
+                } catch (IOException e) {
+                    System.err.println("无法写入统计报告 " + metricsReport + " : " + e.getMessage());
+                }
+            }
+        }
+    }
 
+    private static int run0(String[] args) throws Exception {
+        resetOptions();
         OptionParser parser = new OptionParser();
         OptionSpec<Void> help = parser.accepts("help", "显示此程序的帮助并退出");
         OptionSpec<Void> seeMirrors = parser.accepts("see-mirrors", "获取所有已知 Github 镜像的名称并退出");
         OptionSpec<Void> startDirectly = parser.accepts("start-directly", "在准备完成后直接启动 BuildTools 。适用于全自动环境。");
-        OptionSpec<String> minecraftVersion = parser.accepts("rev", "将要构建的服务端的 Minecraft 版本").withRequiredArg().defaultsTo("latest");
-        OptionSpec<String> githubMirror = parser.accepts("githubMirror", "将用于构建的 Github 的镜像名称。").withOptionalArg().defaultsTo("ghproxy");
-        OptionSpec<String> serverJarSource = parser.accepts("serverJarSource", "Minecraft 原版服务端的下载源。仅支持 MOJANG, MCBBS 和 BMCLAPI 。").withOptionalArg().defaultsTo("BMCLAPI");
-        OptionSpec<String> compileTarget = parser.accepts("compile", "将要构建的服务端软件。 仅支持 SPIGOT 和 CRAFTBUKKIT 。").withOptionalArg().defaultsTo("SPIGOT");
+        OptionSpec<String> minecraftVersion = parser.accepts("rev", "将要构建的服务端的 Minecraft 版本。多个版本用逗号分隔。").withRequiredArg().withValuesSeparatedBy(',').defaultsTo("latest");
+        OptionSpec<String> githubMirror = parser.accepts("githubMirror", "将用于构建的 Github 的镜像名称。使用 auto 自动选择最快的镜像。").withOptionalArg().defaultsTo("ghproxy");
+        OptionSpec<String> serverJarSource = parser.accepts("serverJarSource", "Minecraft 原版服务端的下载源。仅支持 MOJANG, MCBBS, BMCLAPI 和 auto (自动选择最快的下载源) 。").withOptionalArg().defaultsTo("BMCLAPI");
+        OptionSpec<String> compileTarget = parser.accepts("compile", "将要构建的服务端软件。 仅支持 SPIGOT 和 CRAFTBUKKIT 。多个目标用逗号分隔。").withOptionalArg().withValuesSeparatedBy(',').defaultsTo("SPIGOT");
         OptionSpec<String> giteeUserName = parser.accepts("giteeUserName", "存放构建数据的 Gitee 账号名称。").withRequiredArg();
+        OptionSpec<Integer> prepareThreads = parser.accepts("prepare-threads", "同时执行的准备步骤 (下载、解压、克隆等) 的最大数量。").withRequiredArg().ofType(Integer.class).defaultsTo(8);
+        OptionSpec<Integer> gitDepth = parser.accepts("git-depth", "首次克隆仓库时只获取最近的若干个提交 (浅克隆，需要命令行 Git)。0 表示完整克隆。浅克隆只适合构建最新版本。").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<Void> noRepoUpdate = parser.accepts("no-repo-update", "不从 Gitee 更新已经存在的仓库。");
+        OptionSpec<Long> manifestTtl = parser.accepts("manifest-ttl", "本地缓存的版本清单在多少分钟内直接使用，不再向下载源确认。").withRequiredArg().ofType(Long.class).defaultsTo(10L);
+        OptionSpec<Void> offlineManifest = parser.accepts("offline-manifest", "只使用本地缓存的版本清单，不访问下载源。");
+        OptionSpec<Integer> downloadConnections = parser.accepts("download-connections", "下载单个文件时最多同时使用的连接数。服务器不支持分段下载时只使用一个连接。").withRequiredArg().ofType(Integer.class).defaultsTo(4);
+        OptionSpec<Integer> maxConnections = parser.accepts("max-connections", "所有下载加起来最多同时使用的连接数。连接不够时，构建最需要的文件先下载。守护进程中，保留以便复用的空闲连接数由第一个请求决定，之后不再改变。").withRequiredArg().ofType(Integer.class).defaultsTo(8);
+        OptionSpec<Long> downloadLimit = parser.accepts("download-limit", "所有下载加起来的最大速度 (KB/s) 。0 表示不限制。").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Integer> connectTimeout = parser.accepts("connect-timeout", "连接服务器的超时时间 (秒) 。").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Integer> readTimeout = parser.accepts("read-timeout", "服务器多少秒没有发送数据时放弃这个连接 (有其他镜像时换用其他镜像) 。").withRequiredArg().ofType(Integer.class).defaultsTo(30);
+        OptionSpec<Integer> parallelBuilds = parser.accepts("parallel-builds", "构建多个版本或目标时同时运行的 BuildTools 数量。0 表示根据 CPU 核心数和内存自动决定。").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+
+        OptionSpec<File> buildLog = parser.accepts("build-log", "将 BuildTools 的输出同时写入此文件。文件过大时会轮换。").withRequiredArg().ofType(File.class);
+        OptionSpec<Long> buildTimeout = parser.accepts("build-timeout", "BuildTools 运行超过多少分钟后将被终止。0 表示不限制。").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<File> buildJava = parser.accepts("build-java", "用于运行 BuildTools 的 java 程序的路径。默认使用运行此程序的 Java 。").withRequiredArg().ofType(File.class);
+        OptionSpec<String> buildJvmArgs = parser.accepts("build-jvm-args", "运行 BuildTools 的 JVM 参数，用空格分隔。例如 \"-Xmx2G -XX:+UseParallelGC\" 。").withRequiredArg();
+        OptionSpec<String> mavenOpts = parser.accepts("maven-opts", "BuildTools 启动的 Maven 的 JVM 参数 (MAVEN_OPTS)。例如 \"-Xmx2G -XX:+UseParallelGC -XX:TieredStopAtLevel=1\" 。").withRequiredArg();
+        OptionSpec<String> mavenMirror = parser.accepts("maven-mirror", "Maven 仓库镜像的地址。将为 BuildTools 启动的 Maven 生成使用此镜像的 settings.xml 。").withRequiredArg();
+        OptionSpec<String> mavenMirrorOf = parser.accepts("maven-mirror-of", "Maven 仓库镜像代替的仓库，格式与 settings.xml 中的 mirrorOf 相同。").withRequiredArg().defaultsTo("central");
+        OptionSpec<Integer> mavenThreads = parser.accepts("maven-threads", "Maven 同时下载的依赖数量。").withRequiredArg().ofType(Integer.class).defaultsTo(8);
+        OptionSpec<Void> noMavenPrefetch = parser.accepts("no-maven-prefetch", "不在启动 BuildTools 前预先下载 Maven 依赖。");
+        OptionSpec<Integer> prefetchThreads = parser.accepts("prefetch-threads", "预下载 Maven 依赖时同时下载的文件数量。").withRequiredArg().ofType(Integer.class).defaultsTo(16);
+        OptionSpec<Void> mavenOffline = parser.accepts("maven-offline", "让 BuildTools 启动的 Maven 以离线模式运行。仅在依赖已经全部下载过时使用。");
+        OptionSpec<File> cacheDir = parser.accepts("cache-dir", "下载的文件按 SHA-1 保存在此目录中，可以被多个运行目录甚至多台机器 (网络文件系统) 共用。").withRequiredArg().ofType(File.class).defaultsTo(new File(System.getProperty("user.home"), ".cache" + File.separator + "buildtoolsplus"));
+        OptionSpec<Long> cacheMaxSize = parser.accepts("cache-max-size", "缓存目录的最大大小 (MB) 。超出时删除最久未使用的文件。").withRequiredArg().ofType(Long.class).defaultsTo(10240L);
+        OptionSpec<Void> noCache = parser.accepts("no-cache", "不使用缓存目录。");
+        OptionSpec<Void> sync = parser.accepts("sync", "比较 SpigotMC 与 Gitee 上的仓库，更新本地的仓库后退出。不进行构建。");
+        OptionSpec<Void> syncPush = parser.accepts("sync-push", "与 --sync 一起使用。将 Gitee 上缺少的提交从 SpigotMC 获取并推送到 Gitee ，代替 update.py 。需要 --gitee-token 。");
+        OptionSpec<String> giteeToken = parser.accepts("gitee-token", "推送到 Gitee 时使用的私人令牌 (或密码) 。").withRequiredArg();
+        OptionSpec<Void> noUpstreamCheck = parser.accepts("no-upstream-check", "构建前不检查 Gitee 上的仓库是否落后于 SpigotMC 。");
+        OptionSpec<Void> prune = parser.accepts("prune", "构建时在后台清理运行目录: 删除已经安装的安装包，以及长时间未使用的服务端文件和 BuildTools 的中间文件。");
+        OptionSpec<Long> pruneMaxAge = parser.accepts("prune-max-age", "与 --prune 一起使用。多少天未使用的文件将被删除。").withRequiredArg().ofType(Long.class).defaultsTo(30L);
+        OptionSpec<Long> pruneMaxSize = parser.accepts("prune-max-size", "与 --prune 一起使用。服务端文件和中间文件的最大总大小 (MB) ，超出时删除最久未使用的。0 表示不限制。").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSpec<Void> gitShim = parser.accepts("git-shim", "不使用系统中的 Git ，由 BuildTools+ 内置的 Git (JGit) 为 BuildTools 执行 Git 命令。仍然需要 sh 。");
+        OptionSpec<Void> noGitShim = parser.accepts("no-git-shim", "找不到 Git 时不使用 BuildTools+ 内置的 Git 。");
+        OptionSpec<Void> noOutputCache = parser.accepts("no-output-cache", "总是运行 BuildTools ，即使同样的源码和文件已经构建过。");
+        OptionSpec<File> metricsOut = parser.accepts("metrics-out", "将各步骤的用时和下载速度写入此文件。以 .csv 结尾时写为 CSV ，否则写为 JSON 。").withRequiredArg().ofType(File.class);
+
+        OptionSpec<Void> daemon = parser.accepts("daemon", "以守护进程运行，在本机端口上接受构建请求。准备好的数据在请求之间保留在内存中。");
+        OptionSpec<Integer> daemonPort = parser.accepts("daemon-port", "守护进程监听的本机端口。").withRequiredArg().ofType(Integer.class).defaultsTo(25590);
+        OptionSpec<Void> useDaemon = parser.accepts("use-daemon", "将其余参数交给在此运行目录中启动的守护进程执行，而不是自己执行。");
+        OptionSpec<Long> repoUpdateInterval = parser.accepts("repo-update-interval", "守护进程中，仓库在上次更新后多少分钟内不再更新。").withRequiredArg().ofType(Long.class).defaultsTo(5L);
 
         OptionSet options = parser.parse(args);
 
+        metricsReport = metricsOut.value(options);
+        if (options.has(useDaemon)) {
+            List<String> forwarded = new ArrayList<>(Arrays.asList(args));
+            forwarded.remove("--use-daemon");
+            return Daemon.send(forwarded);
+        }
+
+        // initial information
+        String ver = Main.class.getPackage().getImplementationVersion();
+        System.out.println("正在加载 BuildTools+ , 版本 " + ver + " , 作者 SNWCreations");
+        System.out.println("Java 版本: " + System.getProperty("java.version"));
+        System.out.println("运行目录 (构建所需数据以及成品均会保存在这): " + CURRENT_DIR.getAbsolutePath());
+        System.out.println();
+
+        if (options.has(daemon)) {
+            if (Daemon.isServing()) {
+                System.err.println("守护进程不能再启动守护进程。");
+                return 1;
+            }
+            return Daemon.serve(daemonPort.value(options));
+        }
+
+        if (GITHUB_MIRROR_DATA == null) { // the daemon keeps it
+            System.out.println("正在加载 Github 镜像数据...");
+            GITHUB_MIRROR_DATA = JsonParser.parseReader(
+                    new InputStreamReader(
+                            Objects.requireNonNull(Main.class.getResourceAsStream("/githubproxies.json"))
+                    )
+            ).getAsJsonObject();
+        }
+
         if (options.has(help)) {
             parser.printHelpOn(System.out);
-            return;
+            return 0;
         }
         if (options.has(seeMirrors)) {
             System.out.println("已知的 Github 镜像名称: ");
             GITHUB_MIRROR_DATA.keySet().forEach(System.out::println);
             System.out.println();
             System.out.println("如果你知道其他的 Github 镜像名称，欢迎在仓库发布 Issue 让我知道！");
-            return;
+            return 0;
         }
 
         if (!options.has(giteeUserName)) {
             System.err.println("错误: 需要一个 Gitee 用户名称才能继续。");
-            System.exit(1);
+            return 1;
         }
 
-        final String serverJarSourceResult = serverJarSource.value(options);
+        String serverJarSourceResult = serverJarSource.value(options);
 
-        if (!Arrays.asList("MCBBS", "BMCLAPI", "MOJANG").contains(serverJarSourceResult)) {
-            System.err.println("无效的下载源。仅支持 'MCBBS', 'BMCLAPI' 和 'MOJANG' 。注意大小写！");
-            System.exit(1);
+        if (!SERVER_JAR_SOURCES.contains(serverJarSourceResult) && !serverJarSourceResult.equals("auto")) {
+            System.err.println("无效的下载源。仅支持 'MCBBS', 'BMCLAPI', 'MOJANG' 和 'auto' 。注意大小写！");
+            return 1;
         }
 
-        if (!Arrays.asList("SPIGOT", "CRAFTBUKKIT").contains(compileTarget.value(options))) {
+        final List<String> compileTargets = new ArrayList<>(new LinkedHashSet<>(compileTarget.values(options)));
+        if (!Arrays.asList("SPIGOT", "CRAFTBUKKIT").containsAll(compileTargets)) {
             System.err.println("无效的构建目标！仅支持 SPIGOT 和 CRAFTBUKKIT 。注意大小写！");
-            System.exit(1);
+            return 1;
+        }
+        final List<String> requestedVersions = new ArrayList<>(new LinkedHashSet<>(minecraftVersion.values(options)));
+
+        if (parallelBuilds.value(options) < 0) {
+            System.err.println("无效的并行构建数！");
+            return 1;
+        }
+
+        if (downloadConnections.value(options) < 1) {
+            System.err.println("无效的下载连接数！至少需要 1 个连接。");
+            return 1;
+        }
+        DOWNLOAD_CONNECTIONS = downloadConnections.value(options);
+        if (maxConnections.value(options) < 1) {
+            System.err.println("无效的最大连接数！至少需要 1 个连接。");
+            return 1;
+        }
+        if (downloadLimit.value(options) < 0 || connectTimeout.value(options) < 1 || readTimeout.value(options) < 1) {
+            System.err.println("无效的下载速度限制或超时时间！");
+            return 1;
+        }
+        MAX_CONNECTIONS = maxConnections.value(options);
+        DOWNLOAD_LIMIT = downloadLimit.value(options) * 1024;
+        CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(connectTimeout.value(options));
+        READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(readTimeout.value(options));
+        // idle connections the JVM keeps per host for reuse (5 by default). The JVM reads it once,
+        //  so in the daemon the first request decides it. The connections in use are limited by DownloadManager on every request.
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_CONNECTIONS));
         }
 
-        String giteeUserNameResult = giteeUserName.value(options);
+        CACHE_DIR = options.has(noCache) ? null : cacheDir.value(options);
+        CACHE_MAX_SIZE = cacheMaxSize.value(options) * 1024 * 1024;
+
+        BUILD_TIMEOUT_MINUTES = buildTimeout.value(options);
+        BUILD_JAVA = options.has(buildJava) ? buildJava.value(options) : getDefaultJava();
+        if (!BUILD_JAVA.isFile()) {
+            System.err.println("找不到用于运行 BuildTools 的 Java: " + BUILD_JAVA.getAbsolutePath());
+            return 1;
+        }
+        if (options.has(buildJvmArgs)) {
+            BUILD_JVM_ARGS = Arrays.asList(buildJvmArgs.value(options).trim().split("\\s+"));
+        }
+        MAVEN_OPTS = mavenOpts.value(options);
+        if (mavenThreads.value(options) < 1 || prefetchThreads.value(options) < 1) {
+            System.err.println("无效的 Maven 下载线程数！至少需要 1 个线程。");
+            return 1;
+        }
+        MANIFEST_TTL_MINUTES = manifestTtl.value(options);
+        OFFLINE_MANIFEST = options.has(offlineManifest);
+        // with the TTL of this request, the daemon may still have the manifests of an earlier one
+        ManifestCache.expire();
+
+        if (prepareThreads.value(options) < 1) {
+            System.err.println("无效的准备线程数！至少需要 1 个线程。");
+            return 1;
+        }
+        if (pruneMaxAge.value(options) < 0 || pruneMaxSize.value(options) < 0) {
+            System.err.println("无效的清理策略！");
+            return 1;
+        }
+
+        final String giteeUserNameResult = giteeUserName.value(options);
         System.out.println("Gitee 账号名称: " + giteeUserNameResult);
         System.out.println();
 
-        System.out.println("正在加载 Github 镜像数据...");
-        GITHUB_MIRROR_DATA = JsonParser.parseReader(
-                new InputStreamReader(
-                        Objects.requireNonNull(Main.class.getResourceAsStream("/githubproxies.json"))
-                )
-        ).getAsJsonObject();
+        if (options.has(sync)) {
+            if (options.has(syncPush) && !options.has(giteeToken)) {
+                System.err.println("错误: 推送到 Gitee 需要 --gitee-token 。");
+                return 1;
+            }
+            try {
+                RepoSync.sync(giteeUserNameResult, options.has(syncPush) ? giteeToken.value(options) : null);
+            } catch (Exception e) {
+                System.err.println("同步失败: " + e.getMessage());
+                return 1;
+            }
+            return 0;
+        }
 
         TARGETED_MIRROR_NAME = githubMirror.value(options);
-        if (!GITHUB_MIRROR_DATA.keySet().contains(TARGETED_MIRROR_NAME)) {
+        if (TARGETED_MIRROR_NAME.equals("auto")) {
+            Map<String, String> candidates = new LinkedHashMap<>();
+            for (String name : GITHUB_MIRROR_DATA.keySet()) {
+                candidates.put(name, redirectGithubToMirror(MIRROR_PROBE_FILE, GITHUB_MIRROR_DATA.get(name).getAsString()));
+            }
+            GITHUB_MIRROR_RANKING = MirrorSelector.rank("github", candidates);
+            if (GITHUB_MIRROR_RANKING.isEmpty()) {
+                System.err.println("所有 Github 镜像都无法访问！你的网络连接是否正常？");
+                return 1;
+            }
+            TARGETED_MIRROR_NAME = GITHUB_MIRROR_RANKING.get(0);
+        } else if (!GITHUB_MIRROR_DATA.keySet().contains(TARGETED_MIRROR_NAME)) {
             System.err.println("无效的 Github 镜像名称！");
-            System.exit(1);
+            return 1;
+        } else {
+            GITHUB_MIRROR_RANKING = Collections.singletonList(TARGETED_MIRROR_NAME);
+        }
+
+        if (serverJarSourceResult.equals("auto")) {
+            Map<String, String> candidates = new LinkedHashMap<>();
+            for (String source : SERVER_JAR_SOURCES) {
+                candidates.put(source, getServerJarSourceDomain(source) + "/mc/game/version_manifest.json");
+            }
+            SERVER_JAR_SOURCE_RANKING = MirrorSelector.rank("serverJar", candidates);
+            if (SERVER_JAR_SOURCE_RANKING.isEmpty()) {
+                System.err.println("所有 Minecraft 原版服务端下载源都无法访问！你的网络连接是否正常？");
+                return 1;
+            }
+            serverJarSourceResult = SERVER_JAR_SOURCE_RANKING.get(0);
+        } else {
+            SERVER_JAR_SOURCE_RANKING = Collections.singletonList(serverJarSourceResult);
         }
+        final String serverJarSourceName = serverJarSourceResult;
 
-        String minecraftVersionResult = minecraftVersion.value(options);
+        System.out.println("Github 镜像名称: " + TARGETED_MIRROR_NAME);
+        System.out.println("Minecraft 原版服务端下载源: " + serverJarSourceName);
+        System.out.println("准备构建 " + String.join(", ", compileTargets) + " , 版本 " + String.join(", ", requestedVersions));
+        System.out.println();
 
-        if (Objects.equals(minecraftVersionResult, "latest")) {
-            minecraftVersionResult = getLatestMinecraftVersion(serverJarSourceResult);
+        if (!options.has(noUpstreamCheck)) {
+            RepoSync.warnIfStaleInBackground(giteeUserNameResult);
         }
 
+        // The preparation steps are mostly independent network I/O, so they run at the same time.
+        // Only the real dependencies are ordered, e.g. Maven is unzipped after it has been downloaded.
+        // With the output cache, the steps the cache key needs (BuildTools.jar, the manifests and the repositories) run first,
+        //  the expensive rest only if something has to be built.
+        // requested version ("latest" included) to the resolved version and its server jar URL and SHA-1
+        final Map<String, String> resolvedVersions = new ConcurrentHashMap<>();
+        final Map<String, String[]> serverJars = new ConcurrentHashMap<>();
+        final boolean lookupFirst = !options.has(noOutputCache) && CACHE_DIR != null;
+        TaskScheduler lookupSteps = new TaskScheduler(prepareThreads.value(options));
+        lookupSteps.add("BuildTools", Main::prepareBuildTools);
+        for (String requested : requestedVersions) {
+            // the manifest itself is only fetched once, ManifestCache shares it between these steps
+            lookupSteps.add("manifest-" + requested, () -> {
+                String version = requested.equals("latest") ? getLatestMinecraftVersion(serverJarSourceName) : requested;
+                String[] urlAndSha1 = getServerJARUrlAndSha1(version, serverJarSourceName);
+                if (urlAndSha1.length != 2) {
+                    throw new RuntimeException("我们找不到所请求的 Minecraft 版本 " + version + " ！这个版本存在吗？");
+                }
+                resolvedVersions.put(requested, version);
+                serverJars.put(requested, urlAndSha1);
+            });
+        }
+        for (String repository : REPOSITORIES) {
+            lookupSteps.add("repo-" + repository.toLowerCase(), () -> prepareRepo(
+                    repository, giteeUserNameResult, gitDepth.value(options), !options.has(noRepoUpdate), repoUpdateInterval.value(options)
+            ));
+        }
 
-        System.out.println("Github 镜像名称: " + TARGETED_MIRROR_NAME);
-        System.out.println("Minecraft 原版服务端下载源: " + serverJarSourceResult);
-        System.out.println("准备构建 " + compileTarget.value(options));
+        // the versions which are going to be built
+        final BiConsumer<TaskScheduler, List<String>> addBuildSteps = (scheduler, versions) -> {
+            for (String requested : versions) {
+                scheduler.add("server-jar-" + requested, () -> prepareServerJar(resolvedVersions.get(requested), serverJars.get(requested)),
+                        scheduler == lookupSteps ? new String[]{"manifest-" + requested} : new String[0]);
+            }
+            scheduler.add("maven-download", Main::downloadMaven);
+            scheduler.add("maven-unzip", Main::unzipMaven, "maven-download");
+            scheduler.add("git", () -> prepareGit(options.has(gitShim), !options.has(noGitShim)));
+            scheduler.add("svredirector", Main::prepareSVRedirector);
+            scheduler.add("maven-config", () -> MavenConfig.write(
+                    CURRENT_DIR, mavenMirror.value(options), mavenMirrorOf.value(options), mavenThreads.value(options),
+                    options.has(mavenOffline)
+            ));
+            if (!options.has(noMavenPrefetch)) {
+                List<String> prefetchDependencies = new ArrayList<>();
+                if (scheduler == lookupSteps) {
+                    prefetchDependencies.addAll(Arrays.asList("repo-bukkit", "repo-craftbukkit", "repo-spigot"));
+                    for (String requested : versions) {
+                        prefetchDependencies.add("manifest-" + requested);
+                    }
+                }
+                scheduler.add("maven-prefetch", () -> {
+                    System.out.println("正在预下载 Maven 依赖。");
+                    List<String> resolved = new ArrayList<>();
+                    for (String requested : versions) {
+                        resolved.add(resolvedVersions.get(requested));
+                    }
+                    try {
+                        new MavenPrefetch(mavenMirror.value(options), mavenMirrorOf.value(options), prefetchThreads.value(options))
+                                .run(new ArrayList<>(new LinkedHashSet<>(resolved)));
+                    } catch (Exception e) {
+                        // only an optimization, Maven will download what is missing by itself
+                        System.out.println("预下载 Maven 依赖时遇到问题: " + e.getMessage() + " 。将由 Maven 自行下载。");
+                    }
+                }, prefetchDependencies.toArray(new String[0]));
+            }
+        };
+
+        if (!lookupFirst) {
+            addBuildSteps.accept(lookupSteps, requestedVersions);
+        }
+        if (!runSteps(lookupSteps)) {
+            return 1;
+        }
+
+        // only now the server jars to keep are known, "latest" is not the name of one
+        if (options.has(prune)) {
+            Workspace.startCleanup(TimeUnit.DAYS.toMillis(pruneMaxAge.value(options)), pruneMaxSize.value(options) * 1024 * 1024,
+                    resolveVersions(requestedVersions, resolvedVersions));
+        }
+
+        // "latest" may be one of the listed versions as well
+        final List<BuildFarm.Build> builds = new ArrayList<>();
+        for (String requested : requestedVersions) {
+            for (String target : compileTargets) {
+                BuildFarm.Build build = new BuildFarm.Build(resolvedVersions.get(requested), target);
+                if (!builds.contains(build)) {
+                    builds.add(build);
+                }
+            }
+        }
+
+        // the same sources and files make the same server, it does not have to be built again
+        final Map<BuildFarm.Build, OutputCache.Key> outputKeys = new HashMap<>();
+        if (lookupFirst) {
+            System.out.println();
+            final Map<String, String> serverJarSha1s = new HashMap<>();
+            for (String requested : requestedVersions) {
+                serverJarSha1s.put(resolvedVersions.get(requested), serverJars.get(requested)[1]);
+            }
+            for (Iterator<BuildFarm.Build> iterator = builds.iterator(); iterator.hasNext(); ) {
+                BuildFarm.Build build = iterator.next();
+                OutputCache.Key key = OutputCache.keyOf(build.getVersion(), build.getTarget(), serverJarSha1s.get(build.getVersion()));
+                if (key == null) {
+                    continue;
+                }
+                if (OutputCache.restore(key, new File(CURRENT_DIR, build.getOutputName()))) {
+                    System.out.println("源码和文件都没有变化，从构建结果缓存中取得 " + build.getOutputName() + " 。");
+                    iterator.remove();
+                } else {
+                    outputKeys.put(build, key);
+                }
+            }
+            if (builds.isEmpty()) {
+                System.out.println("所有服务端都已从缓存中取得，无需构建。感谢使用 BuildTools+ ！");
+                return 0;
+            }
+
+            List<String> versionsToBuild = new ArrayList<>();
+            for (String requested : requestedVersions) {
+                for (BuildFarm.Build build : builds) {
+                    if (build.getVersion().equals(resolvedVersions.get(requested)) && !versionsToBuild.contains(requested)) {
+                        versionsToBuild.add(requested);
+                    }
+                }
+            }
+            TaskScheduler buildSteps = new TaskScheduler(prepareThreads.value(options));
+            addBuildSteps.accept(buildSteps, versionsToBuild);
+            if (!runSteps(buildSteps)) {
+                return 1;
+            }
+        }
+        System.out.println();
+        System.out.println("准备步骤用时: ");
+        for (Metrics.Phase step : Metrics.getPhases("step")) {
+            System.out.println(String.format("  %-24s %6.1f 秒", step.getName(), step.getDurationMillis() / 1000.0));
+        }
         System.out.println();
 
+        if (!options.has(startDirectly)) {
+            System.out.println("一切都准备好了！可以开始了吗？");
+            System.out.println("输入 'N' 退出，输入其他值开始。");
+            if (new Scanner(System.in).next().equalsIgnoreCase("n")) {
+                System.out.println("感谢使用 BuildTools+ ！");
+                System.out.println("自行构建的命令格式是: java -javaagent:svredirector.jar -jar BuildTools.jar --rev <Minecraft 版本> --compile <构建目标>");
+                return 0;
+            }
+
+            System.out.println("好的，开始吧！");
+        } else {
+            System.out.println("检测到 start-directly 参数。启动 BuildTools 。");
+        }
+        System.out.println();
+
+        if (builds.size() > 1) {
+            int parallelism = parallelBuilds.value(options) > 0 ? parallelBuilds.value(options) : BuildFarm.getDefaultParallelism();
+            boolean allSucceeded = new BuildFarm(builds, parallelism).run();
+            for (BuildFarm.Build build : builds) {
+                if (build.isSuccess() && outputKeys.containsKey(build)) {
+                    OutputCache.store(outputKeys.get(build), new File(CURRENT_DIR, build.getOutputName()));
+                }
+            }
+            if (!allSucceeded) {
+                System.err.println("部分构建失败！详细信息请查看对应目录中的 BuildTools+.log 。");
+                System.err.println("不同的 Minecraft 版本需要不同的 Java 来构建！这是一个可能的原因。");
+                return 1;
+            }
+            System.out.println("所有服务端都已构建。感谢使用 BuildTools+ ！");
+            return 0;
+        }
+
+        final BuildFarm.Build onlyBuild = builds.get(0);
+        final String minecraftVersionResult = onlyBuild.getVersion();
+        final String compileTargetResult = onlyBuild.getTarget();
+        int exitCode;
+        try (Metrics.Timer timer = Metrics.start("buildtools", minecraftVersionResult + "-" + compileTargetResult.toLowerCase())) {
+            exitCode = createBuildToolsRunner(minecraftVersionResult, compileTargetResult)
+                    .directory(CURRENT_DIR)
+                    .logFile(buildLog.value(options))
+                    .timeout(BUILD_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                    .run();
+            if (exitCode == 0) {
+                timer.succeeded();
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            exitCode = -1;
+        }
+        if (exitCode != 0) {
+            System.out.println();
+            System.err.println("BuildTools 失败！我们无法做任何事情 :(");
+            System.err.println("不同的 Minecraft 版本需要不同的 Java 来构建！这是一个可能的原因。");
+            System.err.println();
+            return 1;
+        } else {
+            if (outputKeys.containsKey(onlyBuild)) {
+                OutputCache.store(outputKeys.get(onlyBuild), new File(CURRENT_DIR, onlyBuild.getOutputName()));
+            }
+            System.out.println();
+            System.out.println("成功！你的服务端已经构建。文件是: " + onlyBuild.getOutputName());
+            System.out.println("感谢使用 BuildTools+ ！");
+        }
+        return 0;
+    }
+
+    // The versions the requested ones resolve to, each once. "latest" and its number are the same version.
+    static List<String> resolveVersions(List<String> requestedVersions, Map<String, String> resolvedVersions) {
+        Set<String> resolved = new LinkedHashSet<>();
+        for (String requested : requestedVersions) {
+            resolved.add(resolvedVersions.get(requested));
+        }
+        return new ArrayList<>(resolved);
+    }
+
+    // The settings taken from the options, back to their defaults.
+    // The daemon runs every request in the same JVM, an option given to an earlier request must not carry over.
+    private static void resetOptions() {
+        TARGETED_MIRROR_NAME = null;
+        GITHUB_MIRROR_RANKING = Collections.emptyList();
+        SERVER_JAR_SOURCE_RANKING = Collections.emptyList();
+        DOWNLOAD_CONNECTIONS = 1;
+        MAX_CONNECTIONS = 8;
+        DOWNLOAD_LIMIT = 0;
+        CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+        READ_TIMEOUT_MILLIS = 30 * 1000;
+        MANIFEST_TTL_MINUTES = 0;
+        BUILD_TIMEOUT_MINUTES = 0;
+        BUILD_JAVA = null;
+        BUILD_JVM_ARGS = Collections.emptyList();
+        MAVEN_OPTS = null;
+        OFFLINE_MANIFEST = false;
+        CACHE_DIR = null;
+        CACHE_MAX_SIZE = 0;
+        GIT_SHIM_DIR = null;
+    }
+
+    // Returns false (after reporting why) if a step has failed.
+    private static boolean runSteps(TaskScheduler scheduler) {
+        try {
+            scheduler.run();
+            return true;
+        } catch (TaskScheduler.Failure e) {
+            System.err.println("准备构建环境时遇到问题: ");
+            e.getFailures().forEach((step, error) -> System.err.println("  [" + step + "] " + error.getMessage()));
+            if (!e.getSkipped().isEmpty()) {
+                System.err.println("因此未执行的步骤: " + String.join(", ", e.getSkipped()));
+            }
+            System.err.println("程序无法继续。");
+            return false;
+        }
+    }
+
+    // The same for every build, the paths are absolute so that it can run in any work directory.
+    public static ProcessRunner createBuildToolsRunner(String minecraftVersion, String compileTarget) {
+        List<String> command = new ArrayList<>();
+        command.add(BUILD_JAVA.getAbsolutePath());
+        command.addAll(BUILD_JVM_ARGS);
+        command.add("-javaagent:" + new File(CURRENT_DIR, "svredirector.jar").getAbsolutePath());
+        command.addAll(Arrays.asList(
+                "-jar", new File(CURRENT_DIR, "BuildTools.jar").getAbsolutePath(),
+                "--rev", minecraftVersion,
+                "--compile", compileTarget
+        ));
+
+        ProcessRunner runner = new ProcessRunner(command);
+        if (MAVEN_OPTS != null) {
+            runner.environment("MAVEN_OPTS", MAVEN_OPTS);
+        }
+        if (GIT_SHIM_DIR != null) {
+            String path = System.getenv("PATH");
+            runner.environment("PATH", GIT_SHIM_DIR.getAbsolutePath() + (path != null ? File.pathSeparator + path : ""));
+        }
+        return runner;
+    }
+
+    // The JVM running us, unless another one has been chosen.
+    private static File getDefaultJava() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java" + (IS_WINDOWS ? ".exe" : ""));
+    }
+
+    private static void prepareBuildTools() throws Exception {
         if (!new File(CURRENT_DIR, "BuildTools.jar").exists()) {
             System.out.println("正在下载 BuildTools 。");
-            String realBuildToolsURL = redirectGithubToMirror("https://raw.githubusercontent.com/SNWCreations/spigotversions/main/BuildTools.jar", GITHUB_MIRROR_DATA.get(TARGETED_MIRROR_NAME).getAsString());
-
-            new FileDownload(realBuildToolsURL, "./BuildTools.jar", null).start();
+            new FileDownload(getGithubDownloadUrls("https://raw.githubusercontent.com/SNWCreations/spigotversions/main/BuildTools.jar"), "./BuildTools.jar", null)
+                    .priority(DownloadManager.PRIORITY_CRITICAL)
+                    .start();
         } else {
             System.out.println("找到 BuildTools.jar 。");
         }
+    }
 
+    private static void prepareServerJar(String minecraftVersion, String[] urlAndSha1) throws Exception {
+        // two requested versions may resolve to the same one ("latest" and its number)
+        synchronized (SERVER_JAR_LOCKS.computeIfAbsent(minecraftVersion, k -> new Object())) {
+            prepareServerJar0(minecraftVersion, urlAndSha1);
+        }
+    }
 
+    private static void prepareServerJar0(String minecraftVersion, String[] urlAndSha1) throws Exception {
         final File workDir = new File(CURRENT_DIR, "work");
         if (!workDir.exists()) {
             workDir.mkdir();
         }
 
-        String[] urlAndSha1 = getServerJARUrlAndSha1(minecraftVersionResult, serverJarSourceResult);
-
-        if (urlAndSha1.length != 2) {
-            System.err.println("我们找不到所请求的 Minecraft 版本！这个版本存在吗？");
-            System.err.println("程序无法继续。");
-            System.exit(1);
-        }
-
-        File serverCoreFile = new File("./work/minecraft_server." + minecraftVersionResult + ".jar");
-        if (serverCoreFile.exists() && Objects.requireNonNull(getFileDigest(serverCoreFile, "sha-1")).equalsIgnoreCase(urlAndSha1[1])) {
+        File serverCoreFile = new File("./work/minecraft_server." + minecraftVersion + ".jar");
+        Workspace.touch(serverCoreFile);
+        if (HashCache.matches(serverCoreFile, urlAndSha1[1])) {
             System.out.println("找到有效的 Minecraft 原版服务端文件。");
         } else {
             System.out.println("找不到有效的 Minecraft 原版服务端文件。正在下载。");
             serverCoreFile.delete(); // wrong file cannot be used
-            new FileDownload(urlAndSha1[0], serverCoreFile.getAbsolutePath(), urlAndSha1[1]).start();
+            ArtifactCache.fetch(urlAndSha1[1], serverCoreFile, () ->
+                    new FileDownload(getServerJarUrls(minecraftVersion, urlAndSha1[0]), serverCoreFile.getAbsolutePath(), urlAndSha1[1])
+                            .priority(DownloadManager.PRIORITY_CRITICAL)
+                            .start()
+            );
         }
+    }
 
-
+    private static void downloadMaven() throws Exception {
         File mavenPackFile = new File(CURRENT_DIR, "apache-maven-3.6.0.zip");
 
-        if (!new File(CURRENT_DIR, "apache-maven-3.6.0").isDirectory()) {
-            if (!mavenPackFile.exists()
-                    || !Objects.requireNonNull(getFileDigest(mavenPackFile, "sha-1")).equalsIgnoreCase("51819F414A5DA3AAC855BBCA48C68AAFB95AAE81")) {
+        if (!ZipExtractor.isExtracted(new File(CURRENT_DIR, "apache-maven-3.6.0"), "51819F414A5DA3AAC855BBCA48C68AAFB95AAE81")) {
+            if (!HashCache.matches(mavenPackFile, "51819F414A5DA3AAC855BBCA48C68AAFB95AAE81")) {
                 mavenPackFile.delete();
-                System.out.println("正在下载 Maven 。");
-
-                new FileDownload(
-                        redirectGithubToMirror("https://raw.githubusercontent.com/SNWCreations/spigotversions/main/apache-maven-3.6.0.zip", GITHUB_MIRROR_DATA.get(TARGETED_MIRROR_NAME).getAsString()),
-                        "./apache-maven-3.6.0.zip",
-                        "51819F414A5DA3AAC855BBCA48C68AAFB95AAE81"
-                ).start();
+                ArtifactCache.fetch("51819F414A5DA3AAC855BBCA48C68AAFB95AAE81", mavenPackFile, () -> {
+                    System.out.println("正在下载 Maven 。");
+                    new FileDownload(
+                            getGithubDownloadUrls("https://raw.githubusercontent.com/SNWCreations/spigotversions/main/apache-maven-3.6.0.zip"),
+                            "./apache-maven-3.6.0.zip",
+                            "51819F414A5DA3AAC855BBCA48C68AAFB95AAE81"
+                    ).start();
+                });
             }
+        }
+    }
+
+    private static void unzipMaven() throws Exception {
+        if (!ZipExtractor.isExtracted(new File(CURRENT_DIR, "apache-maven-3.6.0"), "51819F414A5DA3AAC855BBCA48C68AAFB95AAE81")) {
             System.out.println("正在解压 Maven 。");
             zipUncompress("./apache-maven-3.6.0.zip", "./apache-maven-3.6.0");
         }
-
-        try {
-            Runtime.getRuntime().exec("sh -c exit");
-            Runtime.getRuntime().exec("git --version"); // check the Git installation.
-        } catch (Exception e) {
+        Workspace.installed(new File(CURRENT_DIR, "apache-maven-3.6.0.zip")); // checked by the extraction
+    }
+    // forceShim - use the JGit backed git command even if Git is installed
+    // allowShim - use it if Git cannot be found but a shell can, instead of failing (or installing PortableGit on Windows)
+    private static void prepareGit(boolean forceShim, boolean allowShim) throws Exception {
+        GIT_SHIM_DIR = null; // the daemon may have used it for an earlier request
+        if (forceShim) {
+            installGitShim();
+            return;
+        }
+        if (gitChecked) {
+            return;
+        }
+        boolean hasShell = canRun("sh", "-c", "exit");
+        if (!hasShell || !canRun("git", "--version")) { // check the Git installation.
+            if (hasShell && allowShim) {
+                System.out.println("找不到 Git 。将使用 BuildTools+ 内置的 Git (JGit) 。");
+                installGitShim();
+                return;
+            }
             if (!IS_WINDOWS) {
-                System.err.println("无法找到 Git 或 Bash 环境，程序无法继续。");
-                System.exit(1);
+                throw new RuntimeException("无法找到 Git 或 Bash 环境。");
             }
 
             // PortableGit can be used on Windows platforms only.
@@ -175,121 +718,101 @@ public class Main {
             File gitInstallerFile = new File("./" + gitDir, gitDir + ".7z.exe");
 
             if (!new File("./" + gitDir, "PortableGit").isDirectory()) {
-                if (!gitInstallerFile.exists()
-                        || !Objects.requireNonNull(getFileDigest(gitInstallerFile, "sha-1")).equalsIgnoreCase(gitHash)) {
+                if (!HashCache.matches(gitInstallerFile, gitHash)) {
 
                     gitInstallerFile.delete();
-                    System.out.println("正在下载 Git 。");
 
                     File gitDirFile = new File(gitDir);
                     if (!gitDirFile.isDirectory()) {
                         gitDirFile.mkdirs();
                     }
 
-                    new FileDownload(
-                            "https://ghproxy.com/https://github.com/git-for-windows/git/releases/download/v2.30.0.windows.1/" + gitDir + ".7z.exe",
-                            gitInstallerFile.getAbsolutePath(), gitHash
-                    ).start();
+                    ArtifactCache.fetch(gitHash, gitInstallerFile, () -> {
+                        System.out.println("正在下载 Git 。");
+                        new FileDownload(
+                                getGithubDownloadUrls("https://github.com/git-for-windows/git/releases/download/v2.30.0.windows.1/" + gitDir + ".7z.exe"),
+                                gitInstallerFile.getAbsolutePath(), gitHash
+                        ).start();
+                    });
                 }
                 System.out.println("正在安装 Git 。");
-                Process gitProcess = Runtime.getRuntime().exec("\"" + gitInstallerFile.getAbsolutePath() + "\"" + " -y -gm2 -nr");
-                gitProcess.waitFor();
-                if (gitProcess.exitValue() != 0) {
-                    System.err.println("Git 安装失败！");
-                    System.exit(1);
+                int exitCode = new ProcessRunner(Arrays.asList(gitInstallerFile.getAbsolutePath(), "-y", "-gm2", "-nr")).run();
+                if (exitCode != 0) {
+                    throw new RuntimeException("Git 安装失败！");
                 }
             } else {
                 System.out.println("Git 已经安装。");
-                System.out.println();
             }
+            Workspace.installed(gitInstallerFile);
         }
+        gitChecked = true;
+    }
 
-        System.out.println("正在检查存放构建数据的仓库。");
+    private static void installGitShim() throws IOException {
+        File directory = new File(DATA_DIR, "git-shim").getAbsoluteFile();
+        GitShim.install(directory);
+        GIT_SHIM_DIR = directory;
+    }
 
+    // false if the program cannot be found
+    private static boolean canRun(String... command) {
         try {
-            if (notContainsGit(new File(CURRENT_DIR, "Bukkit"))) {
-                System.out.println("正在克隆 Bukkit 仓库。");
-                cloneGitRepo("https://gitee.com/" + giteeUserNameResult + "/bukkit", "./Bukkit");
-            } else {
-                System.out.println("Bukkit 仓库 已存在。跳过。");
-            }
-            if (notContainsGit(new File(CURRENT_DIR, "CraftBukkit"))) {
-                System.out.println("正在克隆 CraftBukkit 仓库。");
-                cloneGitRepo("https://gitee.com/" + giteeUserNameResult + "/craftbukkit", "./CraftBukkit");
-            } else {
-                System.out.println("CraftBukkit 仓库 已存在。跳过。");
-            }
-            if (notContainsGit(new File(CURRENT_DIR, "Spigot"))) {
-                System.out.println("正在克隆 Spigot 仓库。");
-                cloneGitRepo("https://gitee.com/" + giteeUserNameResult + "/spigot", "./Spigot");
-            } else {
-                System.out.println("Spigot 仓库 已存在。跳过。");
-            }
-            if (notContainsGit(new File(CURRENT_DIR, "BuildData"))) {
-                System.out.println("正在克隆 BuildData 仓库。");
-                cloneGitRepo("https://gitee.com/" + giteeUserNameResult + "/builddata", "./BuildData");
+            new ProcessBuilder(command).start().waitFor();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // repository - the directory name, the Gitee repository name is the lowercase version of it
+    // updateIntervalMinutes - a repository updated by an earlier request of the daemon less than this ago is not updated again
+    private static void prepareRepo(String repository, String giteeUserName, int depth, boolean update, long updateIntervalMinutes) throws Exception {
+        File localPath = new File(CURRENT_DIR, repository);
+        Long updatedAt = REPO_UPDATED_AT.get(repository);
+        if (updatedAt != null && System.currentTimeMillis() - updatedAt < TimeUnit.MINUTES.toMillis(updateIntervalMinutes)) {
+            update = false;
+        }
+        try {
+            if (notContainsGit(localPath)) {
+                System.out.println("正在克隆 " + repository + " 仓库。");
+                try (Metrics.Timer timer = Metrics.start("clone", repository)) {
+                    cloneGitRepo("https://gitee.com/" + giteeUserName + "/" + repository.toLowerCase(), "./" + repository, depth);
+                    timer.succeeded();
+                }
+            } else if (update) {
+                System.out.println("正在更新 " + repository + " 仓库。");
+                try (Metrics.Timer timer = Metrics.start("update", repository)) {
+                    if (updateGitRepo(localPath)) {
+                        System.out.println(repository + " 仓库 已更新。");
+                    } else {
+                        System.out.println(repository + " 仓库 已是最新。");
+                    }
+                    REPO_UPDATED_AT.put(repository, System.currentTimeMillis());
+                    timer.succeeded();
+                }
             } else {
-                System.out.println("BuildData 仓库 已存在。跳过。");
+                System.out.println(repository + " 仓库 已存在。跳过。");
             }
         } catch (GitAPIException e) {
-            System.err.println("克隆仓库仓库时遇到问题。 " + e.getMessage());
-            System.err.println("你的网络连接是否正常？提供的 Gitee 账号上是否有请求的仓库？");
-            System.err.println("程序无法继续。");
-            System.exit(1);
+            throw new RuntimeException("克隆或更新 " + repository + " 仓库时遇到问题。 " + e.getMessage()
+                    + " 你的网络连接是否正常？提供的 Gitee 账号上是否有请求的仓库？", e);
         }
+    }
 
-        System.out.println();
-
+    private static void prepareSVRedirector() throws Exception {
         File svredirector = new File(CURRENT_DIR, "svredirector.jar");
-        if (!svredirector.exists() ||
-                (svredirector.exists() && (!Objects.requireNonNull(getFileDigest(svredirector, "sha-1")).equalsIgnoreCase("F864BAFD4DE5847A51AE3A9F1B92105CFD3EDF6A")))
-        ) {
+        if (!HashCache.matches(svredirector, "F864BAFD4DE5847A51AE3A9F1B92105CFD3EDF6A")) {
             svredirector.delete();
-            System.out.println("正在下载 SVRedirector 。");
-            new FileDownload(
-                    "https://ghproxy.com/https://github.com/SNWCreations/svredirector/releases/download/v2.0.0/svredirector-2.0.0.jar",
-                    "./svredirector.jar", "F864BAFD4DE5847A51AE3A9F1B92105CFD3EDF6A"
-            ).start();
-        }
-
-        if (!options.has(startDirectly)) {
-            System.out.println("一切都准备好了！可以开始了吗？");
-            System.out.println("输入 'N' 退出，输入其他值开始。");
-            if (new Scanner(System.in).next().equalsIgnoreCase("n")) {
-                System.out.println("感谢使用 BuildTools+ ！");
-                System.out.println("自行构建的命令格式是: java -javaagent:svredirector.jar -jar BuildTools.jar --rev <Minecraft 版本> --compile <构建目标>");
-                return;
-            }
-
-            System.out.println("好的，开始吧！");
-        } else {
-            System.out.println("检测到 start-directly 参数。启动 BuildTools 。");
-        }
-        System.out.println();
-
-        final String javaLibraryPath = System.getProperty("java.library.path");
-        String jvmFolder = javaLibraryPath.substring(0, javaLibraryPath.indexOf((IS_WINDOWS ? ';' : ':')));
-
-        Process buildTools = Runtime.getRuntime().exec(
-                "\"" + new File(jvmFolder, "java" + (IS_WINDOWS ? ".exe" : "")).getAbsolutePath()
-                        + "\" " +
-                        "-javaagent:svredirector.jar -jar BuildTools.jar --rev " + minecraftVersionResult + " --compile " + compileTarget.value(options)
-        );
-        try {
-            readProcessOutput(buildTools);
-        } catch (Throwable e) {
-            buildTools.destroy();
-        }
-        if (buildTools.exitValue() != 0) {
-            System.out.println();
-            System.err.println("BuildTools 失败！我们无法做任何事情 :(");
-            System.err.println("不同的 Minecraft 版本需要不同的 Java 来构建！这是一个可能的原因。");
-            System.err.println();
-            System.exit(1);
-        } else {
-            System.out.println();
-            System.out.println("成功！你的服务端已经构建。文件是: " + compileTarget.value(options).toLowerCase() + "-" + minecraftVersionResult + ".jar");
-            System.out.println("感谢使用 BuildTools+ ！");
+            ArtifactCache.fetch("F864BAFD4DE5847A51AE3A9F1B92105CFD3EDF6A", svredirector, () -> {
+                System.out.println("正在下载 SVRedirector 。");
+                new FileDownload(
+                        getGithubDownloadUrls("https://github.com/SNWCreations/svredirector/releases/download/v2.0.0/svredirector-2.0.0.jar"),
+                        "./svredirector.jar", "F864BAFD4DE5847A51AE3A9F1B92105CFD3EDF6A"
+                ).start();
+            });
         }
     }
 }
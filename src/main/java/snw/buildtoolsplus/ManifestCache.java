@@ -0,0 +1,167 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the version manifest (and the per-version JSON files) we got from the mirrors.
+ * Every URL is parsed once per process. On disk, a copy younger than the TTL is used without asking the mirror,
+ *  an older one is revalidated with If-None-Match / If-Modified-Since, so an unchanged manifest costs one 304.
+ *
+ * @author SNWCreations
+ */
+public class ManifestCache {
+    private static final Gson GSON = new Gson();
+    private static final Map<String, JsonElement> PARSED = new ConcurrentHashMap<>();
+    private static final Map<String, Long> PARSED_AT = new ConcurrentHashMap<>();
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    public static JsonElement get(String url) throws IOException {
+        JsonElement cached = PARSED.get(url);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (lockOf(url)) {
+            cached = PARSED.get(url);
+            if (cached == null) {
+                try (Metrics.Timer timer = Metrics.start("manifest", url)) {
+                    cached = load(url);
+                    timer.succeeded();
+                }
+                PARSED.put(url, cached);
+                PARSED_AT.put(url, System.currentTimeMillis());
+            }
+            return cached;
+        }
+    }
+
+    // Called at the start of every run, once the TTL is known. Within a run a manifest is parsed once,
+    //  the daemon keeps it for further runs until the TTL is over.
+    public static void expire() {
+        long now = System.currentTimeMillis();
+        PARSED_AT.forEach((url, parsedAt) -> {
+            if (now - parsedAt >= TimeUnit.MINUTES.toMillis(Main.MANIFEST_TTL_MINUTES)) {
+                PARSED.remove(url);
+                PARSED_AT.remove(url);
+            }
+        });
+    }
+
+    private static Object lockOf(String url) {
+        return LOCKS.computeIfAbsent(url, k -> new Object());
+    }
+
+    private static JsonElement load(String url) throws IOException {
+        File dataFile = new File(new File(Main.DATA_DIR, "manifests"), nameOf(url) + ".json");
+        File metaFile = new File(dataFile.getPath() + ".meta");
+        Meta meta = readMeta(metaFile);
+        boolean haveCopy = meta != null && dataFile.isFile();
+
+        if (haveCopy && (Main.OFFLINE_MANIFEST
+                || System.currentTimeMillis() - meta.fetchedAt < TimeUnit.MINUTES.toMillis(Main.MANIFEST_TTL_MINUTES))) {
+            return parse(dataFile);
+        }
+        if (Main.OFFLINE_MANIFEST) {
+            throw new IOException("离线模式下找不到 " + url + " 的本地缓存");
+        }
+
+        // nothing can start without the manifests, they go first
+        DownloadManager.Permit permit = DownloadManager.acquire(DownloadManager.PRIORITY_CRITICAL);
+        try {
+            URLConnection conn = DownloadManager.open(new URL(url));
+            if (haveCopy && conn instanceof HttpURLConnection) {
+                if (meta.etag != null) {
+                    conn.setRequestProperty("If-None-Match", meta.etag);
+                }
+                if (meta.lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", meta.lastModified);
+                }
+                if (((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    meta.fetchedAt = System.currentTimeMillis();
+                    writeMeta(metaFile, meta);
+                    return parse(dataFile);
+                }
+            }
+
+            dataFile.getParentFile().mkdirs();
+            File temp = new File(dataFile.getPath() + ".tmp");
+            try (InputStream in = conn.getInputStream()) {
+                Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            JsonElement element = parse(temp); // never replace a good copy with a broken one
+            Files.move(temp.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            Meta fresh = new Meta();
+            fresh.etag = conn.getHeaderField("ETag");
+            fresh.lastModified = conn.getHeaderField("Last-Modified");
+            fresh.fetchedAt = System.currentTimeMillis();
+            writeMeta(metaFile, fresh);
+            return element;
+        } catch (IOException | JsonParseException e) {
+            if (haveCopy) {
+                System.out.println("无法从 " + url + " 获取最新数据 (" + e.getMessage() + ")，使用本地缓存。");
+                return parse(dataFile);
+            }
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        } finally {
+            permit.close();
+        }
+    }
+
+    // the name only has to be stable and file system friendly
+    private static String nameOf(String url) {
+        try {
+            return Util.toHex(MessageDigest.getInstance("sha-1").digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM has SHA-1
+        }
+    }
+
+    private static JsonElement parse(File file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader);
+        }
+    }
+
+    private static Meta readMeta(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, Meta.class);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static void writeMeta(File file, Meta meta) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(meta, writer);
+        }
+    }
+
+    private static class Meta {
+        private String etag;
+        private String lastModified;
+        private long fetchedAt;
+    }
+}
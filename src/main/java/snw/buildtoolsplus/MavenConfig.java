@@ -0,0 +1,113 @@
+package snw.buildtoolsplus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Tunes the Maven started by BuildTools, without touching BuildTools itself.
+ * Maven looks for a <code>.mvn</code> directory from the project directory upwards,
+ *  so <code>.mvn/maven.config</code> in the running directory applies to every project
+ *  BuildTools builds there (and in the work directories of the build farm, which are below it).
+ * The JVM options of Maven are not written here, they are passed in <code>MAVEN_OPTS</code> by {@link Main#createBuildToolsRunner}.
+ * If a mirror is given, a settings.xml pointing at it is generated next to maven.config and passed with <code>-s</code>.
+ * Maven 3.6 splits maven.config at whitespace and resolves a relative <code>-s</code> against the directory it runs in
+ *  (which differs between the projects), so the settings are referenced by a path without spaces.
+ *
+ * @author SNWCreations
+ */
+public class MavenConfig {
+    // also the repository Maven records for what it downloads through the mirror
+    public static final String MIRROR_ID = "buildtoolsplus-mirror";
+
+    // mirrorUrl - null for no mirror
+    // mirrorOf - the repositories the mirror replaces, in the syntax of settings.xml (e.g. "central", "*,!spigotmc-public")
+    // threads - how many artifacts Maven downloads at the same time
+    // offline - Maven must not go to the network, everything has been prefetched
+    public static void write(File baseDir, String mirrorUrl, String mirrorOf, int threads, boolean offline) throws IOException {
+        File mvnDir = new File(baseDir, ".mvn");
+        mvnDir.mkdirs();
+
+        StringBuilder mavenConfig = new StringBuilder();
+        mavenConfig.append("-Dmaven.artifact.threads=").append(threads).append('\n');
+        if (offline) {
+            mavenConfig.append("-o\n");
+        }
+        File settings = new File(mvnDir, "settings.xml");
+        File copy = copyLocation(baseDir);
+        if (mirrorUrl != null) {
+            writeSettings(settings, mirrorUrl, mirrorOf);
+            File usable = settings;
+            if (containsWhitespace(settings.getAbsolutePath())) {
+                usable = copy;
+                if (usable != null) {
+                    Files.copy(settings.toPath(), usable.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (usable != null) {
+                mavenConfig.append("-s\n").append(usable.getAbsolutePath()).append('\n');
+            } else {
+                System.out.println("警告: 运行目录的路径中包含空格，且找不到不含空格的位置存放 settings.xml ，Maven 将不使用镜像。");
+            }
+        } else {
+            settings.delete(); // left by an earlier run
+            if (copy != null) {
+                copy.delete();
+            }
+        }
+        write(new File(mvnDir, "maven.config"), mavenConfig.toString());
+        // written by earlier versions, the JVM options were passed twice
+        new File(mvnDir, "jvm.config").delete();
+        new File(Main.DATA_DIR, "settings.xml").delete();
+    }
+
+    // Where the settings of a running directory with spaces in its path are copied to, null if every candidate has spaces too.
+    private static File copyLocation(File baseDir) {
+        String name = "buildtoolsplus-settings-" + Integer.toHexString(baseDir.getAbsolutePath().hashCode()) + ".xml";
+        for (String dir : new String[]{System.getProperty("java.io.tmpdir"), System.getProperty("user.home") + File.separator + ".m2"}) {
+            if (dir != null && new File(dir).isDirectory() && !containsWhitespace(new File(dir).getAbsolutePath())) {
+                return new File(dir, name);
+            }
+        }
+        return null;
+    }
+
+    static boolean containsWhitespace(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            if (Character.isWhitespace(path.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeSettings(File file, String mirrorUrl, String mirrorOf) throws IOException {
+        file.getParentFile().mkdirs();
+        write(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<!-- Generated by BuildTools+, changes will be overwritten. -->\n" +
+                "<settings xmlns=\"http://maven.apache.org/SETTINGS/1.0.0\"\n" +
+                "          xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+                "          xsi:schemaLocation=\"http://maven.apache.org/SETTINGS/1.0.0 https://maven.apache.org/xsd/settings-1.0.0.xsd\">\n" +
+                "  <mirrors>\n" +
+                "    <mirror>\n" +
+                "      <id>" + MIRROR_ID + "</id>\n" +
+                "      <mirrorOf>" + escape(mirrorOf) + "</mirrorOf>\n" +
+                "      <url>" + escape(mirrorUrl) + "</url>\n" +
+                "    </mirror>\n" +
+                "  </mirrors>\n" +
+                "</settings>\n");
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,631 @@
+package snw.buildtoolsplus;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fills the local Maven repository before BuildTools starts, with many downloads at the same time.
+ * The Maven run inside BuildTools fetches the dependencies one after another, which is the slowest part of a build here.
+ * The dependencies are read from the poms of Bukkit, CraftBukkit and Spigot at the commits BuildTools will use,
+ *  and followed through the poms of the dependencies (parents, managed versions, imported BOMs included).
+ * This is not a complete Maven resolver (no exclusions, no version ranges, no snapshots),
+ *  whatever we miss or get wrong is simply downloaded by Maven itself, as before.
+ * Like Maven, we record in <code>_remote.repositories</code> which repository (or the mirror in front of it) a file came from,
+ *  so Maven treats our downloads exactly like its own ones.
+ *
+ * @author SNWCreations
+ */
+public class MavenPrefetch {
+    private static final String CENTRAL = "https://repo.maven.apache.org/maven2";
+    // the plugins Maven 3.6.0 binds to the jar lifecycle by default (clean install)
+    private static final String[][] DEFAULT_PLUGINS = {
+            {"org.apache.maven.plugins", "maven-clean-plugin", "2.5"},
+            {"org.apache.maven.plugins", "maven-resources-plugin", "2.6"},
+            {"org.apache.maven.plugins", "maven-compiler-plugin", "3.1"},
+            {"org.apache.maven.plugins", "maven-surefire-plugin", "2.12.4"},
+            {"org.apache.maven.plugins", "maven-jar-plugin", "2.4"},
+            {"org.apache.maven.plugins", "maven-install-plugin", "2.4"}
+    };
+    // a broken pom must not make us walk the whole of Maven Central
+    private static final int MAX_ARTIFACTS = 3000;
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+    // Maven's record of where the files of a directory in the local repository came from
+    private static final String REMOTE_REPOSITORIES = "_remote.repositories";
+    private static final String REMOTE_REPOSITORIES_COMMENT = "NOTE: This is a Maven Resolver internal implementation file, its format can be changed without prior notice.";
+
+    private final File localRepository;
+    private final String mirrorUrl;
+    private final String mirrorOf;
+    private final List<String[]> repositories = Collections.synchronizedList(new ArrayList<>()); // id, url
+    private final ExecutorService executor;
+    private final Set<String> visited = ConcurrentHashMap.newKeySet();
+    private final Map<String, Pom> poms = new ConcurrentHashMap<>();
+    private final AtomicInteger downloadedFiles = new AtomicInteger();
+    private final AtomicInteger missingArtifacts = new AtomicInteger();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private Phaser pending;
+
+    // mirrorUrl - null for no mirror, mirrorOf as in settings.xml ("*" and "central" are understood)
+    public MavenPrefetch(String mirrorUrl, String mirrorOf, int threads) {
+        this.localRepository = new File(System.getProperty("maven.repo.local",
+                new File(new File(System.getProperty("user.home"), ".m2"), "repository").getPath()));
+        this.mirrorUrl = mirrorUrl;
+        this.mirrorOf = mirrorOf;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Maven-Prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        addRepository(CENTRAL, "central");
+    }
+
+    public void run(List<String> minecraftVersions) throws Exception {
+        try (Metrics.Timer timer = Metrics.start("maven-prefetch", String.join(",", minecraftVersions))) {
+            pending = new Phaser(1);
+            for (String minecraftVersion : minecraftVersions) {
+                Map<String, String> refs = getBuildRefs(minecraftVersion);
+                for (String repository : new String[]{"Bukkit", "CraftBukkit", "Spigot"}) {
+                    String ref = refs.getOrDefault(repository, "refs/remotes/origin/master");
+                    byte[] pom = readFileAt(new File(Main.CURRENT_DIR, repository), ref, "pom.xml");
+                    if (pom != null) {
+                        visitRoot(parse(pom));
+                    }
+                }
+            }
+            for (String[] plugin : DEFAULT_PLUGINS) {
+                submit(new Dependency(plugin[0], plugin[1], plugin[2], "jar", null, "runtime"), true);
+            }
+            pending.arriveAndAwaitAdvance();
+            timer.addBytes(downloadedBytes.get());
+            timer.succeeded();
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Maven 依赖预下载完成: 下载了 " + downloadedFiles.get() + " 个文件 ("
+                + Metrics.formatBytes(downloadedBytes.get()) + ")，" + missingArtifacts.get() + " 个依赖未找到，将由 Maven 自行处理。");
+    }
+
+    // Without the commits of the version we use the newest ones, which are right for the latest version and mostly right for the others.
+    private static Map<String, String> getBuildRefs(String minecraftVersion) {
+        try {
+            return Util.getBuildRefs(minecraftVersion);
+        } catch (Exception e) {
+            System.out.println("无法获取 " + minecraftVersion + " 使用的提交 (" + e.getMessage() + ")，按最新的提交预下载 Maven 依赖。");
+            return new HashMap<>();
+        }
+    }
+
+    // Reads a file of a commit without checking it out, so the working tree stays as BuildTools left it.
+    // Returns null if the repository or the file is not there.
+    // If the commit is not there (e.g. in a shallow clone), the newest commit is used.
+    private static byte[] readFileAt(File repositoryDir, String ref, String path) throws IOException {
+        if (Util.notContainsGit(repositoryDir)) {
+            return null;
+        }
+        try (Git git = Git.open(repositoryDir)) {
+            Repository repository = git.getRepository();
+            ObjectId commit = repository.resolve(ref);
+            if (commit == null || !repository.getObjectDatabase().has(commit)) {
+                commit = repository.resolve("refs/remotes/origin/master");
+            }
+            if (commit == null) {
+                return null;
+            }
+            try (RevWalk walk = new RevWalk(repository)) {
+                TreeWalk treeWalk = TreeWalk.forPath(repository, path, walk.parseCommit(commit).getTree());
+                if (treeWalk == null) {
+                    return null;
+                }
+                return repository.open(treeWalk.getObjectId(0)).getBytes();
+            }
+        }
+    }
+
+    // The projects BuildTools builds: everything they use (test scope included) and their plugins.
+    private void visitRoot(Pom root) {
+        for (String[] repository : root.repositories) {
+            addRepository(repository[1], repository[0]);
+        }
+        Resolved resolved = resolve(root, 0);
+        for (Dependency dependency : root.dependencies) {
+            if (!"system".equals(dependency.scope)) {
+                submit(resolved.complete(dependency), false);
+            }
+        }
+        for (Dependency plugin : root.plugins) {
+            submit(resolved.completePlugin(plugin), true);
+            for (Dependency dependency : plugin.dependencies) {
+                submit(resolved.complete(dependency), true);
+            }
+        }
+    }
+
+    private void addRepository(String url, String id) {
+        if (mirrorUrl != null && (mirrorOf.equals("*") || Arrays.asList(mirrorOf.split(",")).contains(id))) {
+            url = mirrorUrl;
+            id = MavenConfig.MIRROR_ID;
+        }
+        url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        synchronized (repositories) {
+            for (String[] repository : repositories) {
+                if (repository[1].equals(url)) {
+                    return;
+                }
+            }
+            repositories.add(new String[]{id, url});
+        }
+    }
+
+    // runtime - true if the artifact is needed with its runtime dependencies (plugins), not only the compile ones
+    private void submit(Dependency dependency, boolean runtime) {
+        if (dependency == null || dependency.version == null || dependency.version.contains("${")
+                || dependency.version.endsWith("-SNAPSHOT") || dependency.version.startsWith("[") || dependency.version.startsWith("(")) {
+            return; // snapshots are built by BuildTools itself, the rest we cannot resolve without the full Maven model
+        }
+        if (visited.size() >= MAX_ARTIFACTS || !visited.add(dependency.key())) {
+            return;
+        }
+        pending.register();
+        executor.execute(() -> {
+            try {
+                visit(dependency, runtime);
+            } catch (Exception e) {
+                missingArtifacts.incrementAndGet();
+            } finally {
+                pending.arriveAndDeregister();
+            }
+        });
+    }
+
+    private void visit(Dependency dependency, boolean runtime) throws Exception {
+        Pom pom = loadPom(dependency.groupId, dependency.artifactId, dependency.version);
+        if (pom == null) {
+            missingArtifacts.incrementAndGet();
+            return;
+        }
+        if (!"pom".equals(dependency.type) && !"pom".equals(pom.packaging)) {
+            // every packaging we meet here (jar, bundle, maven-plugin, test-jar) ends up as a .jar
+            String classifier = "test-jar".equals(dependency.type) ? "tests" : dependency.classifier;
+            if (!fetch(pathOf(dependency.groupId, dependency.artifactId, dependency.version, classifier, "jar"))) {
+                missingArtifacts.incrementAndGet();
+            }
+        }
+
+        Resolved resolved = resolve(pom, 0);
+        for (Dependency child : pom.dependencies) {
+            if (child.optional) {
+                continue;
+            }
+            String scope = child.scope == null ? "compile" : child.scope;
+            if (scope.equals("compile") || (runtime && scope.equals("runtime"))) {
+                submit(resolved.complete(child), runtime);
+            }
+        }
+    }
+
+    // The pom with its parents: the properties and the managed versions its dependencies may refer to.
+    // depth - how many BOM imports deep we are, a cycle of imports must end somewhere
+    Resolved resolve(Pom pom, int depth) {
+        Resolved resolved = new Resolved();
+        List<Pom> chain = new ArrayList<>();
+        for (Pom current = pom; current != null && chain.size() < 10; ) {
+            chain.add(current);
+            current = current.parent == null ? null : loadPom(current.parent[0], current.parent[1], current.parent[2]);
+        }
+        for (int i = chain.size() - 1; i >= 0; i--) { // the child wins
+            resolved.properties.putAll(chain.get(i).properties);
+        }
+        resolved.properties.put("project.groupId", pom.groupId);
+        resolved.properties.put("project.artifactId", pom.artifactId);
+        resolved.properties.put("project.version", pom.version);
+        resolved.properties.put("pom.version", pom.version);
+        resolved.properties.put("version", pom.version);
+        if (pom.parent != null) {
+            resolved.properties.put("project.parent.version", pom.parent[2]);
+            resolved.properties.put("parent.version", pom.parent[2]);
+        }
+        for (Pom current : chain) {
+            for (Dependency managed : current.managedDependencies) {
+                Dependency interpolated = resolved.interpolate(managed);
+                if ("import".equals(interpolated.scope) && "pom".equals(interpolated.type) && depth < 5) {
+                    Pom bom = loadPom(interpolated.groupId, interpolated.artifactId, interpolated.version);
+                    if (bom != null) {
+                        for (Map.Entry<String, String> entry : resolve(bom, depth + 1).managed.entrySet()) {
+                            resolved.managed.putIfAbsent(entry.getKey(), entry.getValue());
+                        }
+                    }
+                } else if (interpolated.version != null) {
+                    resolved.managed.putIfAbsent(interpolated.groupId + ":" + interpolated.artifactId, interpolated.version);
+                }
+            }
+            for (Dependency plugin : current.managedPlugins) {
+                Dependency interpolated = resolved.interpolate(plugin);
+                if (interpolated.version != null) {
+                    resolved.managedPlugins.putIfAbsent(interpolated.groupId + ":" + interpolated.artifactId, interpolated.version);
+                }
+            }
+        }
+        return resolved;
+    }
+
+    private Pom loadPom(String groupId, String artifactId, String version) {
+        String key = groupId + ":" + artifactId + ":" + version;
+        Pom pom = poms.get(key);
+        if (pom != null) {
+            return pom;
+        }
+        try {
+            String path = pathOf(groupId, artifactId, version, null, "pom");
+            if (!fetch(path)) {
+                return null;
+            }
+            pom = parse(Files.readAllBytes(new File(localRepository, path).toPath()));
+            poms.put(key, pom);
+            return pom;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String pathOf(String groupId, String artifactId, String version, String classifier, String extension) {
+        return groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/"
+                + artifactId + "-" + version + (classifier != null ? "-" + classifier : "") + "." + extension;
+    }
+
+    // Returns true if the file is in the local repository now.
+    private boolean fetch(String path) {
+        File target = new File(localRepository, path);
+        if (target.isFile()) {
+            return true;
+        }
+        for (String[] repository : new ArrayList<>(repositories)) {
+            try {
+                if (download(repository[1] + "/" + path, target)) {
+                    recordOrigin(target, repository[0]);
+                    return true;
+                }
+            } catch (IOException e) {
+                // try the next repository
+            }
+        }
+        return false;
+    }
+
+    // Adds "<file name>><repository id>=" to _remote.repositories, as Maven does after a download.
+    // Maven only uses a file from its local repository for the repositories recorded there,
+    //  a file without a record would count as installed locally, and be used even where it should not be.
+    private static void recordOrigin(File file, String repositoryId) {
+        File record = new File(file.getParentFile(), REMOTE_REPOSITORIES);
+        synchronized (MavenPrefetch.class) { // the pom and the jar of an artifact may arrive at the same time
+            Properties properties = new Properties();
+            if (record.isFile()) {
+                try (InputStream in = Files.newInputStream(record.toPath())) {
+                    properties.load(in);
+                } catch (IOException e) {
+                    // written again below
+                }
+            }
+            properties.setProperty(file.getName() + ">" + (repositoryId != null ? repositoryId : ""), "");
+            try (OutputStream out = Files.newOutputStream(record.toPath())) {
+                properties.store(out, REMOTE_REPOSITORIES_COMMENT);
+            } catch (IOException e) {
+                // Maven downloads the file again if it wants to know where it came from
+            }
+        }
+    }
+
+    // Returns false if the repository does not have the file.
+    private boolean download(String url, File target) throws IOException {
+        File temp = new File(target.getPath() + "." + Thread.currentThread().getId() + ".part");
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("sha-1");
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM has SHA-1
+        }
+        long size = 0;
+        // the permit is given back before the checksum asks for another one
+        DownloadManager.Permit permit = DownloadManager.acquire(DownloadManager.PRIORITY_BACKGROUND);
+        try {
+            HttpURLConnection http = open(url);
+            if (http.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                http.disconnect();
+                return false;
+            }
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw new IOException("HTTP " + http.getResponseCode());
+            }
+            target.getParentFile().mkdirs();
+            try (InputStream in = http.getInputStream(); OutputStream out = Files.newOutputStream(temp.toPath())) {
+                byte[] buffer = new byte[64 * 1024];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                    digest.update(buffer, 0, len);
+                    size += len;
+                    DownloadManager.throttle(len);
+                }
+            } catch (IOException e) {
+                http.disconnect();
+                temp.delete();
+                throw e;
+            }
+        } finally {
+            permit.close();
+        }
+        String expected = readChecksum(url + ".sha1");
+        if (expected != null && !expected.equalsIgnoreCase(Util.toHex(digest.digest()))) {
+            temp.delete();
+            throw new IOException(url + " 的 SHA-1 不正确");
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        downloadedFiles.incrementAndGet();
+        downloadedBytes.addAndGet(size);
+        return true;
+    }
+
+    // null if the repository has no checksum for the file
+    private static String readChecksum(String url) {
+        try {
+            DownloadManager.Permit permit = DownloadManager.acquire(DownloadManager.PRIORITY_BACKGROUND);
+            try {
+                HttpURLConnection http = open(url);
+                if (http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    http.disconnect();
+                    return null;
+                }
+                byte[] data = new byte[256];
+                int len = 0, read;
+                try (InputStream in = http.getInputStream()) {
+                    while (len < data.length && (read = in.read(data, len, data.length - len)) != -1) {
+                        len += read;
+                    }
+                }
+                String text = new String(data, 0, len, StandardCharsets.US_ASCII).trim();
+                String sha1 = text.split("\\s+")[0];
+                return sha1.matches("[0-9a-fA-F]{40}") ? sha1 : null;
+            } finally {
+                permit.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // The connections are not disconnected after a complete response, the next file from the same repository reuses them.
+    private static HttpURLConnection open(String url) throws IOException {
+        return (HttpURLConnection) DownloadManager.open(new URL(url));
+    }
+
+    static Pom parse(byte[] data) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(new ByteArrayInputStream(data));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("无法解析 pom: " + e.getMessage(), e);
+        }
+        Element project = document.getDocumentElement();
+        Pom pom = new Pom();
+        Element parent = child(project, "parent");
+        if (parent != null) {
+            pom.parent = new String[]{text(parent, "groupId"), text(parent, "artifactId"), text(parent, "version")};
+        }
+        pom.groupId = text(project, "groupId") != null ? text(project, "groupId") : (parent != null ? pom.parent[0] : null);
+        pom.artifactId = text(project, "artifactId");
+        pom.version = text(project, "version") != null ? text(project, "version") : (parent != null ? pom.parent[2] : null);
+        pom.packaging = text(project, "packaging") != null ? text(project, "packaging") : "jar";
+
+        Element properties = child(project, "properties");
+        if (properties != null) {
+            for (Element property : children(properties)) {
+                pom.properties.put(property.getTagName(), property.getTextContent().trim());
+            }
+        }
+        pom.dependencies = dependencies(child(project, "dependencies"));
+        pom.managedDependencies = dependencies(child(child(project, "dependencyManagement"), "dependencies"));
+        Element build = child(project, "build");
+        pom.plugins = plugins(child(build, "plugins"));
+        pom.managedPlugins = plugins(child(child(build, "pluginManagement"), "plugins"));
+        for (String section : new String[]{"repositories", "pluginRepositories"}) {
+            for (Element repository : children(child(project, section))) {
+                if (text(repository, "url") != null) {
+                    pom.repositories.add(new String[]{text(repository, "id"), text(repository, "url")});
+                }
+            }
+        }
+        return pom;
+    }
+
+    private static List<Dependency> dependencies(Element list) {
+        List<Dependency> result = new ArrayList<>();
+        for (Element element : children(list)) {
+            Dependency dependency = new Dependency(text(element, "groupId"), text(element, "artifactId"), text(element, "version"),
+                    text(element, "type") != null ? text(element, "type") : "jar", text(element, "classifier"), text(element, "scope"));
+            dependency.optional = "true".equals(text(element, "optional"));
+            if (dependency.groupId != null && dependency.artifactId != null) {
+                result.add(dependency);
+            }
+        }
+        return result;
+    }
+
+    private static List<Dependency> plugins(Element list) {
+        List<Dependency> result = new ArrayList<>();
+        for (Element element : children(list)) {
+            String groupId = text(element, "groupId") != null ? text(element, "groupId") : "org.apache.maven.plugins";
+            Dependency plugin = new Dependency(groupId, text(element, "artifactId"), text(element, "version"), "jar", null, "runtime");
+            plugin.dependencies = dependencies(child(element, "dependencies"));
+            if (plugin.artifactId != null) {
+                result.add(plugin);
+            }
+        }
+        return result;
+    }
+
+    private static Element child(Element parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && ((Element) node).getTagName().equals(name)) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element parent) {
+        List<Element> result = new ArrayList<>();
+        if (parent != null) {
+            for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node instanceof Element) {
+                    result.add((Element) node);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String text(Element parent, String name) {
+        Element element = child(parent, name);
+        return element == null ? null : element.getTextContent().trim();
+    }
+
+    static class Pom {
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private String packaging;
+        private String[] parent; // groupId, artifactId, version
+        private final Map<String, String> properties = new LinkedHashMap<>();
+        List<Dependency> dependencies;
+        private List<Dependency> managedDependencies;
+        List<Dependency> plugins;
+        private List<Dependency> managedPlugins;
+        private final List<String[]> repositories = new ArrayList<>(); // id, url
+    }
+
+    static class Dependency {
+        private final String groupId;
+        private final String artifactId;
+        private final String version;
+        private final String type;
+        private final String classifier;
+        private final String scope;
+        private boolean optional;
+        private List<Dependency> dependencies = Collections.emptyList(); // plugins only
+
+        private Dependency(String groupId, String artifactId, String version, String type, String classifier, String scope) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.type = type;
+            this.classifier = classifier;
+            this.scope = scope;
+        }
+
+        String key() {
+            return groupId + ":" + artifactId + ":" + version + ":" + type + ":" + classifier;
+        }
+    }
+
+    static class Resolved {
+        private final Map<String, String> properties = new HashMap<>();
+        private final Map<String, String> managed = new HashMap<>();
+        private final Map<String, String> managedPlugins = new HashMap<>();
+
+        String interpolate(String value) {
+            if (value == null) {
+                return null;
+            }
+            for (int round = 0; round < 10 && value.contains("${"); round++) { // properties may refer to properties
+                Matcher matcher = PROPERTY.matcher(value);
+                StringBuffer result = new StringBuffer();
+                while (matcher.find()) {
+                    String replacement = properties.get(matcher.group(1));
+                    matcher.appendReplacement(result, Matcher.quoteReplacement(replacement != null ? replacement : matcher.group()));
+                }
+                matcher.appendTail(result);
+                if (result.toString().equals(value)) {
+                    break;
+                }
+                value = result.toString();
+            }
+            return value;
+        }
+
+        private Dependency interpolate(Dependency dependency) {
+            Dependency result = new Dependency(interpolate(dependency.groupId), interpolate(dependency.artifactId), interpolate(dependency.version),
+                    interpolate(dependency.type), interpolate(dependency.classifier), interpolate(dependency.scope));
+            result.optional = dependency.optional;
+            result.dependencies = dependency.dependencies;
+            return result;
+        }
+
+        // fills in the version from the dependency management if the dependency has none
+        Dependency complete(Dependency dependency) {
+            Dependency interpolated = interpolate(dependency);
+            if (interpolated.version != null) {
+                return interpolated;
+            }
+            String version = managed.get(interpolated.groupId + ":" + interpolated.artifactId);
+            Dependency result = new Dependency(interpolated.groupId, interpolated.artifactId, version,
+                    interpolated.type, interpolated.classifier, interpolated.scope);
+            result.optional = interpolated.optional;
+            return result;
+        }
+
+        Dependency completePlugin(Dependency plugin) {
+            Dependency interpolated = interpolate(plugin);
+            if (interpolated.version != null) {
+                return interpolated;
+            }
+            return new Dependency(interpolated.groupId, interpolated.artifactId,
+                    managedPlugins.get(interpolated.groupId + ":" + interpolated.artifactId), "jar", null, "runtime");
+        }
+    }
+}
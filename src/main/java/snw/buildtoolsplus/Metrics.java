@@ -0,0 +1,179 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects how long every phase of a run took (and how many bytes it moved, if it moved any).
+ * A phase is timed with a {@link Timer}, which is recorded when it is closed:
+ * <pre>
+ * try (Metrics.Timer timer = Metrics.start("unzip", name)) {
+ *     ...
+ *     timer.succeeded();
+ * }
+ * </pre>
+ * The collected phases can be written as JSON or CSV at the end of the run.
+ *
+ * @author SNWCreations
+ */
+public class Metrics {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static long startedAt = System.currentTimeMillis();
+    private static long startedNanos = System.nanoTime();
+    private static final List<Phase> PHASES = new ArrayList<>();
+
+    // Starts a new run, the daemon serves many of them.
+    public static void reset() {
+        synchronized (PHASES) {
+            PHASES.clear();
+            startedAt = System.currentTimeMillis();
+            startedNanos = System.nanoTime();
+        }
+    }
+
+    // category - what kind of work, e.g. "download", "clone"
+    // name - what it worked on, e.g. the file name
+    public static Timer start(String category, String name) {
+        return new Timer(category, name);
+    }
+
+    public static List<Phase> getPhases(String category) {
+        List<Phase> result = new ArrayList<>();
+        synchronized (PHASES) {
+            for (Phase phase : PHASES) {
+                if (phase.category.equals(category)) {
+                    result.add(phase);
+                }
+            }
+        }
+        return result;
+    }
+
+    // The format is chosen by the extension, ".csv" means CSV, everything else JSON.
+    public static void writeReport(File file) throws IOException {
+        List<Phase> phases;
+        synchronized (PHASES) {
+            phases = new ArrayList<>(PHASES);
+        }
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                writer.write("category,name,start_ms,duration_ms,bytes,bytes_per_second,success\n");
+                for (Phase phase : phases) {
+                    writer.write(csv(phase.category) + "," + csv(phase.name) + "," + phase.startMillis + "," + phase.durationMillis
+                            + "," + phase.bytes + "," + phase.bytesPerSecond + "," + phase.success + "\n");
+                }
+            } else {
+                Report report = new Report();
+                report.version = Main.class.getPackage().getImplementationVersion();
+                report.javaVersion = System.getProperty("java.version");
+                report.startedAt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").format(new Date(startedAt));
+                report.totalMillis = (System.nanoTime() - startedNanos) / 1000000;
+                report.phases = phases;
+                GSON.toJson(report, writer);
+            }
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    public static String formatBytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    // bytes per second, as a human readable rate
+    public static String formatRate(long bytesPerSecond) {
+        return String.format("%.2f MB/s", bytesPerSecond / (1024.0 * 1024));
+    }
+
+    public static class Timer implements AutoCloseable {
+        private final String category;
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+        private boolean success;
+
+        private Timer(String category, String name) {
+            this.category = category;
+            this.name = name;
+        }
+
+        public void addBytes(long count) {
+            bytes += count;
+        }
+
+        public void succeeded() {
+            success = true;
+        }
+
+        public long getElapsedMillis() {
+            return (System.nanoTime() - startNanos) / 1000000;
+        }
+
+        // Not called more than once, the try-with-resources block makes sure of that.
+        @Override
+        public void close() {
+            long endNanos = System.nanoTime();
+            Phase phase = new Phase();
+            phase.category = category;
+            phase.name = name;
+            phase.startMillis = (startNanos - startedNanos) / 1000000;
+            phase.durationMillis = (endNanos - startNanos) / 1000000;
+            phase.bytes = bytes;
+            phase.bytesPerSecond = endNanos > startNanos ? (long) (bytes * 1e9 / (endNanos - startNanos)) : 0;
+            phase.success = success;
+            synchronized (PHASES) {
+                PHASES.add(phase);
+            }
+        }
+    }
+
+    public static class Phase {
+        private String category;
+        private String name;
+        // since the start of the run
+        private long startMillis;
+        private long durationMillis;
+        private long bytes;
+        private long bytesPerSecond;
+        private boolean success;
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+    }
+
+    private static class Report {
+        private String version;
+        private String javaVersion;
+        private String startedAt;
+        private long totalMillis;
+        private List<Phase> phases;
+    }
+}
@@ -0,0 +1,172 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures all the candidate mirrors at the same time and ranks them, fastest first.
+ * Each candidate gets one small range request, we measure the time to the response
+ *  and the speed of the body, and estimate how long a 1 MB download would take.
+ * The ranking is remembered for a while, so not every run has to probe again.
+ *
+ * @author SNWCreations
+ */
+public class MirrorSelector {
+    private static final Gson GSON = new Gson();
+    private static final Type TYPE = new TypeToken<HashMap<String, Ranking>>() {
+    }.getType();
+    private static final int PROBE_BYTES = 64 * 1024;
+    private static final int PROBE_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long RANKING_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    // candidates - name to the URL which should be probed
+    // kind - the key of the remembered ranking
+    // Returns the names of the reachable candidates, fastest first.
+    public static List<String> rank(String kind, Map<String, String> candidates) {
+        Map<String, Ranking> rankings = load();
+        Ranking remembered = rankings.get(kind);
+        if (remembered != null && System.currentTimeMillis() - remembered.rankedAt < RANKING_TTL_MILLIS
+                && candidates.keySet().containsAll(remembered.names)) {
+            return remembered.names;
+        }
+
+        System.out.println("正在测试 " + candidates.size() + " 个下载源的速度...");
+        ExecutorService executor = Executors.newFixedThreadPool(candidates.size(), r -> {
+            Thread thread = new Thread(r, "Mirror-Probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Future<Double>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, String> candidate : candidates.entrySet()) {
+            futures.put(candidate.getKey(), executor.submit(() -> probe(candidate.getValue())));
+        }
+        executor.shutdown();
+
+        final Map<String, Double> scores = new HashMap<>();
+        for (Map.Entry<String, Future<Double>> entry : futures.entrySet()) {
+            try {
+                double score = entry.getValue().get(PROBE_TIMEOUT_MILLIS * 3L, TimeUnit.MILLISECONDS);
+                scores.put(entry.getKey(), score);
+                System.out.println("  " + entry.getKey() + ": 预计 " + Math.round(score) + " 毫秒/MB");
+            } catch (Exception e) {
+                entry.getValue().cancel(true);
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                System.out.println("  " + entry.getKey() + ": 不可用 (" + cause.getMessage() + ")");
+            }
+        }
+
+        List<String> names = new ArrayList<>(scores.keySet());
+        names.sort(Comparator.comparingDouble(scores::get));
+        if (!names.isEmpty()) { // do not remember a ranking made while the network was down
+            Ranking ranking = new Ranking();
+            ranking.rankedAt = System.currentTimeMillis();
+            ranking.names = names;
+            rankings.put(kind, ranking);
+            save(rankings);
+        }
+        return names;
+    }
+
+    // Returns the estimated milliseconds for downloading 1 MB from the given URL.
+    // A probe is a download like any other: it needs a permit and counts against the limit,
+    //  but it gives up sooner than our timeouts, a mirror that slow is not worth choosing.
+    private static double probe(String url) throws IOException {
+        // nothing can be downloaded from Github before the mirror is chosen
+        DownloadManager.Permit permit = DownloadManager.acquire(DownloadManager.PRIORITY_CRITICAL);
+        HttpURLConnection http = null;
+        try {
+            long start = System.nanoTime(); // not the time we have waited for the permit
+            http = (HttpURLConnection) DownloadManager.open(new URL(url));
+            http.setConnectTimeout(Math.min(PROBE_TIMEOUT_MILLIS, Main.CONNECT_TIMEOUT_MILLIS));
+            http.setReadTimeout(Math.min(PROBE_TIMEOUT_MILLIS, Main.READ_TIMEOUT_MILLIS));
+            http.setRequestProperty("Range", "bytes=0-" + (PROBE_BYTES - 1));
+            int code = http.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + code);
+            }
+            long firstByte = System.nanoTime();
+            long received = 0;
+            byte[] buffer = new byte[8192];
+            int len;
+            try (InputStream in = http.getInputStream()) {
+                // a mirror that ignores the range would send everything, we only need a sample
+                while (received < PROBE_BYTES && (len = in.read(buffer)) != -1) {
+                    DownloadManager.throttle(len);
+                    received += len;
+                }
+            }
+            long end = System.nanoTime();
+
+            double latencyMillis = (firstByte - start) / 1e6;
+            double transferMillis = Math.max(end - firstByte, 1) / 1e6;
+            double millisPerMegabyte = received == 0 ? 0 : transferMillis * (1024 * 1024) / received;
+            return latencyMillis + millisPerMegabyte;
+        } finally {
+            if (http != null) {
+                http.disconnect();
+            }
+            permit.close();
+        }
+    }
+
+    private static File storeFile() {
+        return new File(Main.DATA_DIR, "mirror-ranking.json");
+    }
+
+    private static synchronized Map<String, Ranking> load() {
+        File file = storeFile();
+        if (file.isFile()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                Map<String, Ranking> stored = GSON.fromJson(reader, TYPE);
+                if (stored != null) {
+                    return stored;
+                }
+            } catch (IOException | JsonParseException e) {
+                // probe again
+            }
+        }
+        return new HashMap<>();
+    }
+
+    private static synchronized void save(Map<String, Ranking> rankings) {
+        File file = storeFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                GSON.toJson(rankings, TYPE, writer);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("无法保存下载源测速结果: " + e.getMessage());
+        }
+    }
+
+    private static class Ranking {
+        private long rankedAt;
+        private List<String> names;
+    }
+}
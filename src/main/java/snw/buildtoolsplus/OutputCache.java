@@ -0,0 +1,175 @@
+package snw.buildtoolsplus;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the servers BuildTools has built, so the same build is not run twice.
+ * A build is identified by everything it is made from: the version and the target, the commits of the repositories
+ *  BuildTools checks out, the original server jar and BuildTools.jar itself. If none of them has changed,
+ *  the jar built last time is taken from the {@link ArtifactCache} instead of running BuildTools again.
+ * <p>
+ * An entry is <code>outputs/&lt;key&gt;</code> in the cache directory, its first line is the SHA-1 of the built jar,
+ *  the rest describes the inputs the key was made from.
+ *
+ * @author SNWCreations
+ */
+public class OutputCache {
+    // changed whenever the inputs are described differently, so the old entries are not hit any more
+    private static final String FORMAT = "1";
+
+    // Taken before the build, BuildTools moves the repositories while it runs.
+    // Returns null if some input cannot be identified, such a build is not cached.
+    public static Key keyOf(String minecraftVersion, String compileTarget, String serverJarSha1) {
+        if (Main.CACHE_DIR == null || serverJarSha1 == null) {
+            return null;
+        }
+        String inputs = describeInputs(minecraftVersion, compileTarget, serverJarSha1);
+        return inputs == null ? null : keyOf(inputs);
+    }
+
+    static Key keyOf(String inputs) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new Key(Util.toHex(digest.digest(inputs.getBytes(StandardCharsets.UTF_8))), inputs);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JVM has SHA-1
+        }
+    }
+
+    private static String describeInputs(String minecraftVersion, String compileTarget, String serverJarSha1) {
+        String buildToolsSha1 = HashCache.getSha1(new File(Main.CURRENT_DIR, "BuildTools.jar"));
+        if (buildToolsSha1 == null) {
+            return null;
+        }
+
+        Map<String, String> refs;
+        try {
+            refs = Util.getBuildRefs(minecraftVersion);
+        } catch (Exception e) {
+            return null; // we cannot know what BuildTools will check out
+        }
+
+        Map<String, String> commits = new LinkedHashMap<>();
+        for (String repository : Main.REPOSITORIES) {
+            // a repository the version file does not mention is used at its newest commit
+            String commit = resolveCommit(new File(Main.CURRENT_DIR, repository), refs.getOrDefault(repository, "refs/remotes/origin/master"));
+            if (commit == null) {
+                return null;
+            }
+            commits.put(repository, commit);
+        }
+        return describeInputs(minecraftVersion, compileTarget, commits, serverJarSha1, buildToolsSha1);
+    }
+
+    // One input per line, the key is the hash of this text.
+    // commits - repository name to commit id, in the order of Main.REPOSITORIES
+    static String describeInputs(String minecraftVersion, String compileTarget, Map<String, String> commits,
+                                 String serverJarSha1, String buildToolsSha1) {
+        StringBuilder inputs = new StringBuilder();
+        inputs.append("format=").append(FORMAT).append('\n');
+        inputs.append("version=").append(minecraftVersion).append('\n');
+        inputs.append("target=").append(compileTarget).append('\n');
+        for (Map.Entry<String, String> commit : commits.entrySet()) {
+            inputs.append(commit.getKey()).append('=').append(commit.getValue()).append('\n');
+        }
+        inputs.append("server=").append(serverJarSha1.toLowerCase()).append('\n');
+        inputs.append("buildtools=").append(buildToolsSha1).append('\n');
+        return inputs.toString();
+    }
+
+    // The full commit id of the ref. A commit id the repository does not have (e.g. in a shallow clone) is used as it is,
+    //  BuildTools will fetch exactly that commit.
+    static String resolveCommit(File repositoryDir, String ref) {
+        if (Util.notContainsGit(repositoryDir)) {
+            return null;
+        }
+        try (Git git = Git.open(repositoryDir)) {
+            Repository repository = git.getRepository();
+            ObjectId commit = repository.resolve(ref + "^{commit}");
+            if (commit != null) {
+                return commit.getName();
+            }
+            return ObjectId.isId(ref) ? ref.toLowerCase() : null;
+        } catch (Exception e) {
+            return ObjectId.isId(ref) ? ref.toLowerCase() : null;
+        }
+    }
+
+    // Places the jar built from the inputs of key at target, if there is one.
+    public static boolean restore(Key key, File target) {
+        File entry = entryFile(key.value);
+        if (!entry.isFile()) {
+            return false;
+        }
+        try {
+            List<String> lines = Files.readAllLines(entry.toPath(), StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !ArtifactCache.restore(lines.get(0).trim(), target)) {
+                entry.delete(); // the jar has been evicted
+                return false;
+            }
+            entry.setLastModified(System.currentTimeMillis());
+            return true;
+        } catch (IOException e) {
+            System.err.println("无法从构建结果缓存中取得 " + target.getName() + " : " + e.getMessage());
+            return false;
+        }
+    }
+
+    // A failure here only costs the next run a build, so it is not fatal.
+    public static void store(Key key, File output) {
+        File entry = entryFile(key.value);
+        File temp = new File(entry.getPath() + ".tmp");
+        try {
+            String sha1 = ArtifactCache.add(output);
+            if (sha1 == null) {
+                return;
+            }
+            entry.getParentFile().mkdirs();
+            try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(sha1 + "\n");
+                writer.write(key.inputs);
+            }
+            try {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            temp.delete();
+            System.err.println("无法将 " + output.getName() + " 加入构建结果缓存: " + e.getMessage());
+        }
+    }
+
+    private static File entryFile(String key) {
+        return new File(new File(Main.CACHE_DIR, "outputs"), key);
+    }
+
+    public static class Key {
+        private final String value;
+        private final String inputs;
+
+        private Key(String value, String inputs) {
+            this.value = value;
+            this.inputs = inputs;
+        }
+
+        String getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package snw.buildtoolsplus;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a child process and relays its output.
+ * stdout and stderr are drained at the same time by two threads, so neither pipe can fill up and stall the child.
+ * Whatever is ready is read in one go and written as one block, instead of line by line,
+ *  the console does not slow a chatty build down. The output can be written into a log file as well,
+ *  which is rotated when it grows too large.
+ *
+ * @author SNWCreations
+ */
+public class ProcessRunner {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long LOG_MAX_SIZE = 50L * 1024 * 1024;
+    // how many rotated logs (xxx.log.1, xxx.log.2 ...) are kept
+    private static final int LOG_KEEP = 3;
+    // how long the child may take to stop after it has been asked to
+    private static final long DESTROY_GRACE_SECONDS = 10;
+
+    private final ProcessBuilder builder;
+    private boolean console = true;
+    private File logFile;
+    private long timeoutMillis;
+
+    public ProcessRunner(List<String> command) {
+        this.builder = new ProcessBuilder(command);
+    }
+
+    public ProcessRunner directory(File directory) {
+        builder.directory(directory);
+        return this;
+    }
+
+    public ProcessRunner environment(String name, String value) {
+        builder.environment().put(name, value);
+        return this;
+    }
+
+    // false - only the log file gets the output
+    public ProcessRunner console(boolean console) {
+        this.console = console;
+        return this;
+    }
+
+    public ProcessRunner logFile(File logFile) {
+        this.logFile = logFile;
+        return this;
+    }
+
+    // 0 - no limit
+    public ProcessRunner timeout(long amount, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(amount);
+        return this;
+    }
+
+    // Returns the exit code. Throws if the process had to be killed because of the timeout.
+    public int run() throws IOException, InterruptedException {
+        final RotatingLog log = logFile != null ? new RotatingLog(logFile) : null;
+        final Process process = builder.start();
+        process.getOutputStream().close(); // nothing to say, and a child waiting for input should notice
+
+        // take the current System.out, not one remembered earlier
+        List<Thread> pumps = new ArrayList<>();
+        pumps.add(pump(process.getInputStream(), console ? System.out : null, log, "stdout"));
+        pumps.add(pump(process.getErrorStream(), console ? System.err : null, log, "stderr"));
+
+        try {
+            boolean exited;
+            if (timeoutMillis > 0) {
+                exited = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                process.waitFor();
+                exited = true;
+            }
+            if (!exited) {
+                destroy(process);
+                throw new IOException("进程运行超过 " + TimeUnit.MILLISECONDS.toMinutes(timeoutMillis) + " 分钟，已被终止。");
+            }
+            return process.exitValue();
+        } catch (InterruptedException e) {
+            destroy(process);
+            throw e;
+        } finally {
+            for (Thread pump : pumps) {
+                pump.join(TimeUnit.SECONDS.toMillis(DESTROY_GRACE_SECONDS)); // the pipes close when the child is gone
+            }
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
+
+    private static void destroy(Process process) throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(DESTROY_GRACE_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor(DESTROY_GRACE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static Thread pump(InputStream in, PrintStream console, RotatingLog log, String name) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream input = in) {
+                int len;
+                while ((len = input.read(buffer)) != -1) {
+                    // take whatever else is already waiting, so it is written as one block
+                    while (len < buffer.length && input.available() > 0) {
+                        int more = input.read(buffer, len, Math.min(input.available(), buffer.length - len));
+                        if (more == -1) {
+                            break;
+                        }
+                        len += more;
+                    }
+                    if (console != null) {
+                        console.write(buffer, 0, len);
+                        console.flush();
+                    }
+                    if (log != null) {
+                        log.write(buffer, len);
+                    }
+                }
+            } catch (IOException e) {
+                // the process is gone, nothing more to relay
+            }
+        }, "Process-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    // Shared by both pumps, so the blocks of stdout and stderr stay whole.
+    private static class RotatingLog {
+        private final File file;
+        private OutputStream out;
+        private long size;
+
+        private RotatingLog(File file) throws IOException {
+            this.file = file;
+            if (file.getAbsoluteFile().getParentFile() != null) {
+                file.getAbsoluteFile().getParentFile().mkdirs();
+            }
+            rotate();
+        }
+
+        private synchronized void write(byte[] data, int len) throws IOException {
+            if (size > 0 && size + len > LOG_MAX_SIZE) {
+                out.close();
+                rotate();
+            }
+            out.write(data, 0, len);
+            size += len;
+        }
+
+        // the current log becomes xxx.log.1, the oldest one is dropped
+        private void rotate() throws IOException {
+            if (file.isFile() && file.length() > 0) {
+                new File(file.getPath() + "." + LOG_KEEP).delete();
+                for (int i = LOG_KEEP - 1; i >= 1; i--) {
+                    new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+                file.renameTo(new File(file.getPath() + ".1"));
+            }
+            out = new FileOutputStream(file);
+            size = 0;
+        }
+
+        private synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+}
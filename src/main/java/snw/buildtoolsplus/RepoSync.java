@@ -0,0 +1,289 @@
+package snw.buildtoolsplus;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static snw.buildtoolsplus.Main.CURRENT_DIR;
+import static snw.buildtoolsplus.Main.REPOSITORIES;
+
+/**
+ * Keeps the Gitee copies of the SpigotMC repositories and our clones of them up to date.
+ * The branches on both sides are compared by their commits (like <code>git ls-remote</code>), nothing is downloaded for that,
+ *  so it is cheap enough to be done (in the background, with a short timeout) before every build.
+ * The four repositories are handled at the same time, fetching only brings the objects we do not have yet.
+ *
+ * @author SNWCreations
+ */
+public class RepoSync {
+    private static final String UPSTREAM_URL = "https://hub.spigotmc.org/stash/scm/spigot/%s.git";
+    private static final String GITEE_URL = "https://gitee.com/%s/%s";
+    // where the branches fetched from SpigotMC are kept in our clones, before they are pushed to Gitee
+    private static final String UPSTREAM_REFS = Constants.R_REMOTES + "upstream/";
+    // SpigotMC is often unreachable from where this tool is used, the check before a build gives up quickly
+    private static final int CHECK_TIMEOUT_SECONDS = 5;
+    private static volatile BackgroundCheck backgroundCheck;
+
+    // Compares the branches of every repository on SpigotMC and on Gitee, then prints the result.
+    public static List<Status> check(String giteeUserName) throws Exception {
+        List<Status> statuses = forEachRepository(repository -> compare(repository, giteeUserName, timeoutSeconds()));
+        for (Status status : statuses) {
+            System.out.println(status);
+        }
+        return statuses;
+    }
+
+    // The check done before a build. It runs in the background, the build neither waits for it nor fails because of it.
+    public static void warnIfStaleInBackground(String giteeUserName) {
+        BackgroundCheck started = new BackgroundCheck(System.out); // the output of the request that started it, in the daemon
+        backgroundCheck = started;
+        Thread thread = new Thread(() -> warnIfStale(giteeUserName, started), "Upstream-Check");
+        thread.setDaemon(true);
+        started.thread = thread;
+        thread.start();
+    }
+
+    // The end of a run. Waits a little for the check, after that what it finds is dropped:
+    //  in the daemon, the output of the request is closed and System.out belongs to the next one.
+    public static void finishCheck() {
+        BackgroundCheck running = backgroundCheck;
+        backgroundCheck = null;
+        if (running == null) {
+            return;
+        }
+        try {
+            running.thread.join(TimeUnit.SECONDS.toMillis(CHECK_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running.close();
+        running.thread.interrupt();
+    }
+
+    private static void warnIfStale(String giteeUserName, BackgroundCheck check) {
+        List<String> lines = new ArrayList<>();
+        try {
+            List<Status> stale = new ArrayList<>();
+            for (Status status : forEachRepository(repository -> compare(repository, giteeUserName, CHECK_TIMEOUT_SECONDS))) {
+                if (status.isStale()) {
+                    stale.add(status);
+                }
+            }
+            if (stale.isEmpty()) {
+                lines.add("Gitee 上的仓库与 SpigotMC 一致。");
+            } else {
+                lines.add("警告: Gitee 上的以下仓库落后于 SpigotMC ，新版本可能无法构建，或使用了过时的 BuildData:");
+                for (Status status : stale) {
+                    lines.add("  " + status);
+                }
+                lines.add("可以使用 --sync --sync-push 更新它们。");
+            }
+        } catch (Exception e) {
+            lines.add("无法检查 Gitee 上的仓库是否为最新: " + e.getMessage());
+        }
+        check.print(lines);
+    }
+
+    // The check of one run, and where it may still report to.
+    private static class BackgroundCheck {
+        private PrintStream out;
+        private Thread thread;
+
+        private BackgroundCheck(PrintStream out) {
+            this.out = out;
+        }
+
+        private synchronized void print(List<String> lines) {
+            if (out != null) {
+                lines.forEach(out::println);
+            }
+        }
+
+        private synchronized void close() {
+            out = null;
+        }
+    }
+
+    // Updates our clones from Gitee. With a token, the branches Gitee is missing are first fetched from SpigotMC
+    //  and pushed to Gitee, so the clones get them too.
+    // Returns the statuses after the sync.
+    public static List<Status> sync(String giteeUserName, String giteeToken) throws Exception {
+        List<Status> statuses = check(giteeUserName);
+        List<Status> results = forEachRepository(repository -> {
+            Status status = statuses.get(REPOSITORIES.indexOf(repository));
+            boolean pushing = giteeToken != null && status.isStale();
+            File localPath = new File(CURRENT_DIR, repository);
+            String giteeUrl = String.format(GITEE_URL, giteeUserName, repository.toLowerCase());
+            if (Util.notContainsGit(localPath)) {
+                System.out.println("正在克隆 " + repository + " 仓库。");
+                Util.cloneGitRepo(giteeUrl, localPath.getPath());
+            }
+            if (pushing) {
+                push(localPath, status, giteeUserName, giteeToken);
+            }
+            System.out.println("正在更新 " + repository + " 仓库。");
+            Util.updateGitRepo(localPath);
+            return pushing ? compare(repository, giteeUserName, timeoutSeconds()) : status;
+        });
+        System.out.println();
+        System.out.println("同步完成。");
+        for (Status status : results) {
+            System.out.println(status);
+        }
+        return results;
+    }
+
+    private static void push(File localPath, Status status, String giteeUserName, String giteeToken) throws Exception {
+        List<RefSpec> fetchSpecs = new ArrayList<>();
+        List<RefSpec> pushSpecs = new ArrayList<>();
+        for (String branch : status.staleBranches) {
+            fetchSpecs.add(new RefSpec("+" + Constants.R_HEADS + branch + ":" + UPSTREAM_REFS + branch));
+            // not forced, a branch somebody changed on Gitee is reported instead of being overwritten
+            pushSpecs.add(new RefSpec(UPSTREAM_REFS + branch + ":" + Constants.R_HEADS + branch));
+        }
+        try (Git git = Git.open(localPath)) {
+            System.out.println("正在从 SpigotMC 获取 " + status.repository + " 仓库的 " + status.staleBranches.size() + " 个分支。");
+            git.fetch()
+                    .setRemote(String.format(UPSTREAM_URL, status.repository.toLowerCase()))
+                    .setRefSpecs(fetchSpecs)
+                    .setTimeout(timeoutSeconds())
+                    .call();
+
+            System.out.println("正在推送 " + status.repository + " 仓库到 Gitee 。");
+            PushCommand push = git.push()
+                    .setRemote(String.format(GITEE_URL, giteeUserName, status.repository.toLowerCase()))
+                    .setRefSpecs(pushSpecs)
+                    .setCredentialsProvider(new UsernamePasswordCredentialsProvider(giteeUserName, giteeToken))
+                    .setTimeout(timeoutSeconds());
+            for (PushResult result : push.call()) {
+                for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+                    if (update.getStatus() != RemoteRefUpdate.Status.OK && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+                        throw new RuntimeException("推送 " + status.repository + " 仓库的 " + update.getRemoteName() + " 失败: "
+                                + update.getStatus() + (update.getMessage() != null ? " " + update.getMessage() : ""));
+                    }
+                }
+            }
+        }
+    }
+
+    private static Status compare(String repository, String giteeUserName, int timeoutSeconds) throws Exception {
+        Map<String, ObjectId> upstream = lsRemote(String.format(UPSTREAM_URL, repository.toLowerCase()), timeoutSeconds);
+        Map<String, ObjectId> gitee = lsRemote(String.format(GITEE_URL, giteeUserName, repository.toLowerCase()), timeoutSeconds);
+        List<String> stale = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> branch : upstream.entrySet()) {
+            // a branch only Gitee has does not matter, BuildTools only asks for what SpigotMC has
+            if (!Objects.equals(gitee.get(branch.getKey()), branch.getValue())) {
+                stale.add(branch.getKey());
+            }
+        }
+        return new Status(repository, upstream.size(), stale);
+    }
+
+    // branch name to commit
+    private static Map<String, ObjectId> lsRemote(String url, int timeoutSeconds) throws Exception {
+        Collection<Ref> refs = Git.lsRemoteRepository()
+                .setRemote(url)
+                .setHeads(true)
+                .setTimeout(timeoutSeconds)
+                .call();
+        Map<String, ObjectId> branches = new LinkedHashMap<>();
+        for (Ref ref : refs) {
+            branches.put(Repository.shortenRefName(ref.getName()), ref.getObjectId());
+        }
+        return branches;
+    }
+
+    private static int timeoutSeconds() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(Main.READ_TIMEOUT_MILLIS);
+    }
+
+    // Runs the action for every repository at the same time, the results are in the order of the repositories.
+    private static <T> List<T> forEachRepository(RepositoryAction<T> action) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(REPOSITORIES.size(), r -> {
+            Thread thread = new Thread(r, "Repo-Sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (String repository : REPOSITORIES) {
+                futures.add(executor.submit(() -> action.run(repository)));
+            }
+            List<T> results = new ArrayList<>();
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    failures.add(REPOSITORIES.get(i) + ": " + cause.getMessage());
+                }
+            }
+            if (!failures.isEmpty()) {
+                throw new RuntimeException("处理以下仓库时遇到问题: " + String.join("; ", failures));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface RepositoryAction<T> {
+        T run(String repository) throws Exception;
+    }
+
+    public static class Status {
+        private final String repository;
+        private final int branches;
+        // the branches of SpigotMC which Gitee does not have, or has at another commit
+        private final List<String> staleBranches;
+
+        private Status(String repository, int branches, List<String> staleBranches) {
+            this.repository = repository;
+            this.branches = branches;
+            this.staleBranches = staleBranches;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public List<String> getStaleBranches() {
+            return staleBranches;
+        }
+
+        public boolean isStale() {
+            return !staleBranches.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            if (!isStale()) {
+                return repository + ": 最新 (" + branches + " 个分支)";
+            }
+            List<String> shown = staleBranches.size() > 5 ? staleBranches.subList(0, 5) : staleBranches;
+            return repository + ": " + staleBranches.size() + "/" + branches + " 个分支落后 ("
+                    + String.join(", ", shown) + (shown.size() < staleBranches.size() ? ", ..." : "") + ")";
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package snw.buildtoolsplus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs named steps on a bounded thread pool.
+ * A step starts as soon as every step it depends on has finished successfully.
+ * If a step fails, the steps depending on it (directly or not) never start,
+ *  the independent ones still run, and all the failures are reported together at the end.
+ *
+ * @author SNWCreations
+ */
+public class TaskScheduler {
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    private final int threads;
+
+    public TaskScheduler(int threads) {
+        this.threads = threads;
+    }
+
+    // Dependencies must be added before the steps that need them, so there can be no cycles.
+    public void add(String name, Step step, String... dependencies) {
+        if (tasks.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate task: " + name);
+        }
+        for (String dependency : dependencies) {
+            if (!tasks.containsKey(dependency)) {
+                throw new IllegalArgumentException("Task " + name + " depends on unknown task " + dependency);
+            }
+        }
+        tasks.put(name, new Task(name, step, dependencies));
+    }
+
+    public void run() throws Failure {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Prepare-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final Map<String, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+        final Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        try {
+            for (Task task : tasks.values()) {
+                CompletableFuture<?>[] dependencies = new CompletableFuture<?>[task.dependencies.length];
+                for (int i = 0; i < dependencies.length; i++) {
+                    dependencies[i] = futures.get(task.dependencies[i]);
+                }
+                // a failed dependency completes this future exceptionally without running the step
+                futures.put(task.name, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                    try (Metrics.Timer timer = Metrics.start("step", task.name)) {
+                        task.step.run();
+                        timer.succeeded();
+                    } catch (Throwable e) {
+                        failures.put(task.name, e);
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+
+            try {
+                CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException ignored) {
+                // collected below
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!failures.isEmpty()) {
+            List<String> skipped = new ArrayList<>();
+            for (Map.Entry<String, CompletableFuture<Void>> entry : futures.entrySet()) {
+                if (entry.getValue().isCompletedExceptionally() && !failures.containsKey(entry.getKey())) {
+                    skipped.add(entry.getKey());
+                }
+            }
+            throw new Failure(new LinkedHashMap<>(failures), skipped);
+        }
+    }
+
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    public static class Failure extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final Map<String, Throwable> failures;
+        private final List<String> skipped;
+
+        private Failure(Map<String, Throwable> failures, List<String> skipped) {
+            super(failures.size() + " 个步骤失败: " + String.join(", ", failures.keySet()));
+            this.failures = failures;
+            this.skipped = skipped;
+            failures.values().forEach(this::addSuppressed);
+        }
+
+        public Map<String, Throwable> getFailures() {
+            return failures;
+        }
+
+        // steps that did not run because something they depend on failed
+        public List<String> getSkipped() {
+            return skipped;
+        }
+    }
+
+    private static class Task {
+        private final String name;
+        private final Step step;
+        private final String[] dependencies;
+
+        private Task(String name, Step step, String[] dependencies) {
+            this.name = name;
+            this.step = step;
+            this.dependencies = dependencies;
+        }
+    }
+}
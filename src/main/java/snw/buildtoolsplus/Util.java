@@ -2,19 +2,27 @@ package snw.buildtoolsplus;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 
 import java.io.*;
-import java.math.BigInteger;
-import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 public class Util {
 
@@ -39,71 +47,70 @@ public class Util {
                 .replace("{FILE}", file);
     }
 
-    public static void zipUncompress(String inputFile, String destDirPath) throws Exception {
-        File srcFile = new File(inputFile);//获取当前压缩文件
-        // 判断源文件是否存在
-        if (!srcFile.exists()) {
-            throw new Exception(srcFile.getPath() + "所指文件不存在");
-        }
-        ZipFile zipFile = new ZipFile(srcFile);//创建压缩文件对象
-        //开始解压
-        Enumeration<?> entries = zipFile.entries();
-        while (entries.hasMoreElements()) {
-            ZipEntry entry = (ZipEntry) entries.nextElement();
-            // 如果是文件夹，就创建个文件夹
-            if (entry.isDirectory()) {
-                srcFile.mkdirs();
-            } else {
-                // 如果是文件，就先创建一个文件，然后用io流把内容copy过去
-                File targetFile = new File(destDirPath + "/" + entry.getName());
-                // 保证这个文件的父文件夹必须要存在
-                if (!targetFile.getParentFile().exists()) {
-                    targetFile.getParentFile().mkdirs();
-                }
-                targetFile.createNewFile();
-                // 将压缩文件内容写入到这个文件中
-                InputStream is = zipFile.getInputStream(entry);
-                FileOutputStream fos = new FileOutputStream(targetFile);
-                int len;
-                byte[] buf = new byte[1024];
-                while ((len = is.read(buf)) != -1) {
-                    fos.write(buf, 0, len);
-                }
-                // 关流顺序，先打开的后关闭
-                fos.close();
-                is.close();
+    // Returns the URLs of a Github file on every mirror a download may use, best first.
+    // Mirrors that only understand raw.githubusercontent.com paths are skipped for other files (e.g. releases),
+    //  ghproxy is used if none of the mirrors is left.
+    public static List<String> getGithubDownloadUrls(String githubUrl) {
+        boolean raw = githubUrl.startsWith("https://raw.githubusercontent.com/");
+        List<String> urls = new ArrayList<>();
+        for (String name : Main.GITHUB_MIRROR_RANKING) {
+            String format = Main.GITHUB_MIRROR_DATA.get(name).getAsString();
+            if (raw) {
+                urls.add(redirectGithubToMirror(githubUrl, format));
+            } else if (!format.contains("{USER}")) {
+                urls.add(format.replace("{ORIGINAL_URL}", githubUrl));
             }
         }
+        if (urls.isEmpty()) {
+            urls.add(Main.GITHUB_MIRROR_DATA.get("ghproxy").getAsString().replace("{ORIGINAL_URL}", githubUrl));
+        }
+        return urls;
     }
 
-    // source - "MOJANG", "BMCLAPI", "MCBBS"
-    public static String[] getServerJARUrlAndSha1(String minecraftVersion, String source) throws Exception {
-        String mainDomain;
+    // originalUrl - the server jar URL in the version JSON of the chosen source
+    public static List<String> getServerJarUrls(String minecraftVersion, String originalUrl) {
+        if (Main.SERVER_JAR_SOURCE_RANKING.size() <= 1) {
+            return Collections.singletonList(originalUrl);
+        }
+        List<String> urls = new ArrayList<>();
+        for (String source : Main.SERVER_JAR_SOURCE_RANKING) {
+            // BMCLAPI and MCBBS serve the server jar of every version under the same path
+            String url = source.equals("MOJANG") ? originalUrl : getServerJarSourceDomain(source) + "/version/" + minecraftVersion + "/server";
+            if (!urls.contains(url)) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    public static void zipUncompress(String inputFile, String destDirPath) throws Exception {
+        ZipExtractor.extract(new File(inputFile), new File(destDirPath));
+    }
 
+    // source - "MOJANG", "BMCLAPI", "MCBBS"
+    public static String getServerJarSourceDomain(String source) {
         switch (source) {
             case "BMCLAPI":
-                mainDomain = "https://bmclapi2.bangbang93.com";
-                break;
+                return "https://bmclapi2.bangbang93.com";
             case "MCBBS":
-                mainDomain = "https://download.mcbbs.net";
-                break;
+                return "https://download.mcbbs.net";
             default:
-                mainDomain = "https://launchermeta.mojang.com";
-                break;
+                return "https://launchermeta.mojang.com";
         }
+    }
+
+    // source - "MOJANG", "BMCLAPI", "MCBBS"
+    public static String[] getServerJARUrlAndSha1(String minecraftVersion, String source) throws Exception {
+        String mainDomain = getServerJarSourceDomain(source);
 
-        JsonElement element = JsonParser.parseReader(new InputStreamReader(
-                new URL(mainDomain + "/mc/game/version_manifest.json").openConnection().getInputStream()
-        ));
+        JsonElement element = ManifestCache.get(mainDomain + "/mc/game/version_manifest.json");
         for (JsonElement version : element.getAsJsonObject().get("versions").getAsJsonArray()) {
             JsonObject object = version.getAsJsonObject();
             if (Objects.equals(object.get("id").getAsString(), minecraftVersion)) {
-                JsonElement versionJson = JsonParser.parseReader(new InputStreamReader(
-                        new URL(
-                                object.get("url").getAsString()
-                                        .replace("https://launchermeta.mojang.com", mainDomain) // redirect you to mirror (if you want)
-                        ).openConnection().getInputStream()
-                ));
+                JsonElement versionJson = ManifestCache.get(
+                        object.get("url").getAsString()
+                                .replace("https://launchermeta.mojang.com", mainDomain) // redirect you to mirror (if you want)
+                );
                 JsonObject serverInfo = versionJson.getAsJsonObject().get("downloads").getAsJsonObject().get("server").getAsJsonObject();
                 return new String[]{serverInfo.get("url").getAsString(), serverInfo.get("sha1").getAsString()};
             }
@@ -113,39 +120,39 @@ public class Util {
 
     // source - "MOJANG", "BMCLAPI", "MCBBS"
     public static String getLatestMinecraftVersion(String source) throws Exception {
-        String mainDomain;
-
-        switch (source) {
-            case "BMCLAPI":
-                mainDomain = "https://bmclapi2.bangbang93.com";
-                break;
-            case "MCBBS":
-                mainDomain = "https://download.mcbbs.net";
-                break;
-            default:
-                mainDomain = "https://launchermeta.mojang.com";
-                break;
-        }
-
-        JsonElement element = JsonParser.parseReader(new InputStreamReader(
-                new URL(mainDomain + "/mc/game/version_manifest.json").openConnection().getInputStream()
-        ));
+        JsonElement element = ManifestCache.get(getServerJarSourceDomain(source) + "/mc/game/version_manifest.json");
         return element.getAsJsonObject().get("latest").getAsJsonObject().get("release").getAsString();
     }
 
+    // The commits BuildTools will check out for this version (repository name -> ref),
+    //  from the version file SVRedirector redirects it to.
+    public static Map<String, String> getBuildRefs(String minecraftVersion) throws Exception {
+        List<String> urls = getGithubDownloadUrls("https://raw.githubusercontent.com/SNWCreations/spigotversions/main/" + minecraftVersion + ".json");
+        JsonObject refsObject = ManifestCache.get(urls.get(0)).getAsJsonObject().getAsJsonObject("refs");
+        Map<String, String> refs = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : refsObject.entrySet()) {
+            refs.put(entry.getKey(), entry.getValue().getAsString());
+        }
+        return refs;
+    }
 
     public static String getFileDigest(File file, String algorithm) {
+        return getFileDigest(file, algorithm, 64 * 1024);
+    }
+
+    // bufferSize - how much is read at once, the benchmarks try several
+    public static String getFileDigest(File file, String algorithm, int bufferSize) {
         if (!file.isFile()) {
             return null;
         }
 
         MessageDigest digest;
-        byte[] buffer = new byte[1024];
+        byte[] buffer = new byte[bufferSize];
         int len;
 
         try (FileInputStream in = new FileInputStream(file)) {
             digest = MessageDigest.getInstance(algorithm);
-            while ((len = in.read(buffer, 0, 1024)) != -1) {
+            while ((len = in.read(buffer, 0, buffer.length)) != -1) {
                 digest.update(buffer, 0, len);
             }
         } catch (Exception e) {
@@ -153,8 +160,18 @@ public class Util {
             return null;
         }
 
-        BigInteger bigInt = new BigInteger(1, digest.digest());
-        return bigInt.toString(16);
+        return toHex(digest.digest());
+    }
+
+    // BigInteger.toString(16) drops leading zeros, a digest always has all of its digits.
+    public static String toHex(byte[] bytes) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i * 2] = hex[(bytes[i] >> 4) & 0xF];
+            result[i * 2 + 1] = hex[bytes[i] & 0xF];
+        }
+        return new String(result);
     }
 
     public static void cloneGitRepo(String remoteUrl, String localPath) throws GitAPIException {
@@ -166,6 +183,71 @@ public class Util {
                 .call().close();
     }
 
+    // depth <= 0 means the full history.
+    public static void cloneGitRepo(String remoteUrl, String localPath, int depth) throws Exception {
+        if (depth > 0) {
+            if (isGitAvailable()) {
+                // JGit 5.x cannot make shallow clones, the command line Git can.
+                runGit(null, "clone", "--depth", String.valueOf(depth), "--branch", "master", remoteUrl, localPath);
+                return;
+            }
+            System.out.println("找不到命令行 Git ，无法进行浅克隆，将克隆完整的 " + new File(localPath).getName() + " 仓库。");
+        }
+        cloneGitRepo(remoteUrl, localPath);
+    }
+
+    // Fetches only the objects that are new on the remote, then fast-forwards master if it is checked out.
+    // BuildTools resets the repositories to the commits it needs by itself,
+    //  so a detached HEAD or a branch that cannot be fast-forwarded is left alone.
+    // Returns true if the remote master has moved since the last fetch.
+    public static boolean updateGitRepo(File localPath) throws Exception {
+        try (Git git = Git.open(localPath)) {
+            Repository repository = git.getRepository();
+            ObjectId before = repository.resolve("refs/remotes/origin/master");
+
+            if (new File(localPath, ".git/shallow").isFile() && isGitAvailable()) {
+                runGit(localPath, "fetch", "origin");
+            } else {
+                git.fetch().setRemote("origin").call();
+            }
+
+            ObjectId after = repository.resolve("refs/remotes/origin/master");
+            if (after != null && "master".equals(repository.getBranch())) {
+                git.merge()
+                        .include(after)
+                        .setFastForward(MergeCommand.FastForwardMode.FF_ONLY)
+                        .call();
+            }
+            return !Objects.equals(before, after);
+        }
+    }
+
+    private static volatile Boolean gitAvailable;
+
+    public static boolean isGitAvailable() {
+        if (gitAvailable == null) {
+            try {
+                gitAvailable = new ProcessBuilder("git", "--version").start().waitFor() == 0;
+            } catch (Exception e) {
+                gitAvailable = false;
+            }
+        }
+        return gitAvailable;
+    }
+
+    public static void runGit(File directory, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .directory(directory)
+                .inheritIO()
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("命令 " + String.join(" ", command) + " 失败，退出码 " + process.exitValue());
+        }
+    }
+
     public static boolean notContainsGit(File file) {
         if (!file.exists()) {
             return true;
@@ -173,22 +255,34 @@ public class Util {
         return !(new File(file, ".git")).isDirectory();
     }
 
-    public static void readProcessOutput(final Process process) {
-        InputStream inputStream = process.getInputStream();
+    // Files are hard linked, directories symbolically linked, so a work directory costs almost no space.
+    // Falls back to copying if the file system (or Windows without the privilege) does not allow the link.
+    public static void linkOrCopy(File source, File target) throws IOException {
+        Path sourcePath = source.toPath().toAbsolutePath().normalize();
+        Path targetPath = target.toPath().toAbsolutePath().normalize();
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (source.isDirectory()) {
+                Files.createSymbolicLink(targetPath, sourcePath);
+            } else {
+                Files.createLink(targetPath, sourcePath);
             }
+            return;
+        } catch (IOException | UnsupportedOperationException e) {
+            // copy below
         }
+        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(targetPath.resolve(sourcePath.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, targetPath.resolve(sourcePath.relativize(file)),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
     }
 }
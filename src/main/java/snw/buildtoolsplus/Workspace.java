@@ -0,0 +1,388 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static snw.buildtoolsplus.Main.CURRENT_DIR;
+import static snw.buildtoolsplus.Main.DATA_DIR;
+
+/**
+ * Keeps the running directory from growing forever.
+ * The index (<code>.buildtoolsplus/workspace.json</code>) knows the size and the last use of
+ *  the server jars and the intermediate outputs BuildTools leaves in <code>work</code>,
+ *  the work directories of the builds run together (<code>builds/&lt;version&gt;-&lt;target&gt;</code>) and their Maven repositories,
+ *  and the installers which have been extracted and checked, so they are no longer needed.
+ * <p>
+ * The cleanup runs on a background thread while the build runs, and it is slow on purpose
+ *  (the lowest thread priority and a pause every few hundred deleted files), so the build keeps the disk.
+ * While the build runs, only what it cannot need is deleted: the installers, and the server jars of other versions.
+ * BuildTools finds its intermediate outputs by names we cannot predict, so they wait until the builds have finished.
+ * Something is deleted by renaming it first, so a half deleted directory is never seen under its real name.
+ *
+ * @author SNWCreations
+ */
+public class Workspace {
+    private static final Gson GSON = new Gson();
+    private static final Type TYPE = new TypeToken<HashMap<String, Entry>>() {
+    }.getType();
+    private static final String TRASH_PREFIX = ".trash-";
+    private static final String SERVER_JAR_PREFIX = "minecraft_server.";
+    private static final int DELETE_BATCH = 200;
+    private static final long DELETE_PAUSE_MILLIS = 20;
+
+    // the paths (relative to the running directory) used during this run, and when
+    private static final Map<String, Long> USED = new ConcurrentHashMap<>();
+    // the paths of the installers which are no longer needed
+    private static final Set<String> INSTALLERS = ConcurrentHashMap.newKeySet();
+    private static volatile Cleaner cleaner;
+
+    public static void touch(File file) {
+        USED.put(pathOf(file), System.currentTimeMillis());
+    }
+
+    // Call after the content of the installer has been extracted (or installed) and checked.
+    public static void installed(File installer) {
+        if (installer.exists()) {
+            INSTALLERS.add(pathOf(installer));
+        }
+    }
+
+    // maxAgeMillis - what has not been used for this long is deleted
+    // maxSizeBytes - the least recently used is deleted until the rest fits, 0 - no limit
+    // builtVersions - resolved from the manifest, their server jars are kept even if they are old, the build is going to use them
+    public static void startCleanup(long maxAgeMillis, long maxSizeBytes, Collection<String> builtVersions) {
+        // the output of the request that started it, in the daemon. finish() waits for it before the request ends.
+        Cleaner started = new Cleaner(maxAgeMillis, maxSizeBytes, builtVersions, System.out, System.err);
+        cleaner = started;
+        Thread thread = new Thread(started, "Workspace-Cleanup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // The end of a run. Lets the cleanup delete the intermediate outputs and waits for it,
+    //  the uses of this run are remembered either way.
+    public static void finish() {
+        Cleaner running = cleaner;
+        cleaner = null;
+        if (running != null) {
+            running.buildsFinished.countDown();
+            try {
+                running.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (USED.isEmpty() && INSTALLERS.isEmpty()) {
+            return;
+        }
+        synchronized (Workspace.class) {
+            Map<String, Entry> index = load();
+            for (Map.Entry<String, Long> use : USED.entrySet()) {
+                Entry entry = index.computeIfAbsent(use.getKey(), k -> new Entry()); // the size is found by the next scan
+                entry.lastUsed = Math.max(entry.lastUsed, use.getValue());
+            }
+            for (String installer : INSTALLERS) {
+                if (new File(CURRENT_DIR, installer).exists()) {
+                    index.computeIfAbsent(installer, k -> new Entry()).installer = true;
+                }
+            }
+            save(index);
+        }
+        USED.clear();
+        INSTALLERS.clear();
+    }
+
+    private static class Cleaner implements Runnable {
+        private final long maxAgeMillis;
+        private final long maxSizeBytes;
+        private final Set<String> keptServerJars;
+        private final long startedAt = System.currentTimeMillis();
+        private final CountDownLatch buildsFinished = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final PrintStream out;
+        private final PrintStream err;
+        private final AtomicLong freedBytes = new AtomicLong();
+        private int removed;
+
+        private Cleaner(long maxAgeMillis, long maxSizeBytes, Collection<String> builtVersions, PrintStream out, PrintStream err) {
+            this.maxAgeMillis = maxAgeMillis;
+            this.out = out;
+            this.err = err;
+            this.maxSizeBytes = maxSizeBytes;
+            this.keptServerJars = serverJarsOf(builtVersions);
+        }
+
+        @Override
+        public void run() {
+            try {
+                // while the build runs
+                Map<String, Entry> index = scan();
+                for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                    Entry value = entry.getValue();
+                    if (value.installer || value.kind.equals(TRASH_PREFIX)
+                            || (value.kind.equals(SERVER_JAR_PREFIX) && !keptServerJars.contains(entry.getKey()) && isOld(value))) {
+                        remove(entry.getKey(), value);
+                    }
+                }
+
+                buildsFinished.await();
+                index = scan();
+                List<Map.Entry<String, Entry>> candidates = new ArrayList<>();
+                long totalSize = 0;
+                for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                    Entry value = entry.getValue();
+                    if (value.installer || value.kind.equals(TRASH_PREFIX)) { // registered during the build
+                        remove(entry.getKey(), value);
+                        continue;
+                    }
+                    totalSize += value.size;
+                    if (value.lastUsed < startedAt && !keptServerJars.contains(entry.getKey())) { // what this run has used stays
+                        candidates.add(entry);
+                    }
+                }
+                candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+                for (Map.Entry<String, Entry> entry : candidates) {
+                    if (isOld(entry.getValue()) || (maxSizeBytes > 0 && totalSize > maxSizeBytes)) {
+                        totalSize -= entry.getValue().size;
+                        remove(entry.getKey(), entry.getValue());
+                    }
+                }
+                synchronized (Workspace.class) {
+                    save(index);
+                }
+                if (removed > 0) {
+                    out.println("清理完成: 删除了 " + removed + " 项，释放了 " + (freedBytes.get() / 1024 / 1024) + " MB 。");
+                }
+            } catch (Exception e) {
+                err.println("清理运行目录时遇到问题: " + e.getMessage());
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private boolean isOld(Entry entry) {
+            return System.currentTimeMillis() - entry.lastUsed > maxAgeMillis;
+        }
+
+        // Also removes the entry from the index.
+        private void remove(String path, Entry entry) {
+            File file = new File(CURRENT_DIR, path);
+            File trash = file.getName().startsWith(TRASH_PREFIX) ? file
+                    : new File(file.getParentFile(), TRASH_PREFIX + file.getName() + "-" + System.nanoTime());
+            if (trash != file && !file.renameTo(trash)) {
+                return; // in use (on Windows), next time
+            }
+            try {
+                deleteSlowly(trash.toPath());
+                freedBytes.addAndGet(entry.size);
+                removed++;
+                entry.removed = true;
+            } catch (IOException e) {
+                err.println("无法删除 " + trash.getPath() + " : " + e.getMessage());
+            }
+        }
+    }
+
+    // The paths of the server jars of these versions, as the index knows them.
+    // The versions are those from the manifest, the server jar of "latest" is named after its number.
+    static Set<String> serverJarsOf(Collection<String> versions) {
+        Set<String> paths = new HashSet<>();
+        for (String version : versions) {
+            paths.add(pathOf(new File(new File(CURRENT_DIR, "work"), SERVER_JAR_PREFIX + version + ".jar")));
+        }
+        return paths;
+    }
+
+    // The server jars and the rest of "work", the known installers and what an interrupted cleanup has left.
+    // The sizes of unchanged entries are taken from the index, the directories BuildTools leaves are big.
+    private static synchronized Map<String, Entry> scan() {
+        Map<String, Entry> index = load();
+        Map<String, Entry> scanned = new HashMap<>();
+        List<File> candidates = new ArrayList<>();
+        File[] work = new File(CURRENT_DIR, "work").listFiles();
+        if (work != null) {
+            for (File file : work) {
+                candidates.add(file);
+            }
+        }
+        // the work directories of BuildFarm, each with its own clones of the repositories and intermediate outputs
+        File[] builds = new File(CURRENT_DIR, "builds").listFiles(File::isDirectory);
+        if (builds != null) {
+            for (File file : builds) {
+                candidates.add(file);
+            }
+        }
+        File[] top = CURRENT_DIR.listFiles((dir, name) -> name.startsWith(TRASH_PREFIX));
+        if (top != null) {
+            for (File file : top) {
+                candidates.add(file);
+            }
+        }
+        for (String installer : INSTALLERS) {
+            candidates.add(new File(CURRENT_DIR, installer));
+        }
+        for (Map.Entry<String, Entry> known : index.entrySet()) {
+            if (known.getValue().installer) {
+                candidates.add(new File(CURRENT_DIR, known.getKey()));
+            }
+        }
+
+        for (File file : candidates) {
+            String path = pathOf(file);
+            if (scanned.containsKey(path) || !file.exists()) {
+                continue;
+            }
+            Entry old = index.get(path);
+            Entry entry = new Entry();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                entry.modified = attributes.lastModifiedTime().toMillis();
+                // what was used may have changed inside without changing the directory itself
+                boolean unchanged = old != null && old.modified == entry.modified && old.size > 0 && !USED.containsKey(path);
+                entry.size = unchanged ? old.size : sizeOf(file.toPath());
+            } catch (IOException e) {
+                continue; // BuildTools has just deleted it
+            }
+            entry.installer = INSTALLERS.contains(path) || (old != null && old.installer);
+            entry.kind = file.getName().startsWith(TRASH_PREFIX) ? TRASH_PREFIX
+                    : file.getName().startsWith(SERVER_JAR_PREFIX) ? SERVER_JAR_PREFIX : "";
+            // the access time is not updated on every file system, what we have used ourselves is remembered.
+            // That of a directory is changed by our own scans.
+            long accessed = attributes.isDirectory() ? 0 : attributes.lastAccessTime().toMillis();
+            entry.lastUsed = Math.max(Math.max(entry.modified, accessed),
+                    Math.max(old != null ? old.lastUsed : 0, USED.getOrDefault(path, 0L)));
+            scanned.put(path, entry);
+        }
+        return scanned;
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        AtomicLong size = new AtomicLong();
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                size.addAndGet(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    private static void deleteSlowly(Path path) throws IOException {
+        AtomicLong deleted = new AtomicLong();
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                if (deleted.incrementAndGet() % DELETE_BATCH == 0) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(DELETE_PAUSE_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String pathOf(File file) {
+        return CURRENT_DIR.getAbsoluteFile().toPath().normalize()
+                .relativize(file.getAbsoluteFile().toPath().normalize())
+                .toString().replace(File.separatorChar, '/');
+    }
+
+    private static Map<String, Entry> load() {
+        File file = indexFile();
+        if (file.isFile()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                Map<String, Entry> stored = GSON.fromJson(reader, TYPE);
+                if (stored != null) {
+                    return stored;
+                }
+            } catch (IOException | JsonParseException e) {
+                // scan again
+            }
+        }
+        return new HashMap<>();
+    }
+
+    // The removed entries are left out.
+    private static void save(Map<String, Entry> index) {
+        Map<String, Entry> kept = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            if (!entry.getValue().removed) {
+                kept.put(entry.getKey(), entry.getValue());
+            }
+        }
+        File file = indexFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                GSON.toJson(kept, TYPE, writer);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("无法保存运行目录索引: " + e.getMessage());
+        }
+    }
+
+    private static File indexFile() {
+        return new File(DATA_DIR, "workspace.json");
+    }
+
+    private static class Entry {
+        private long size;
+        private long modified;
+        private long lastUsed;
+        private boolean installer;
+        // TRASH_PREFIX, SERVER_JAR_PREFIX or "" for the rest
+        private String kind = "";
+        private transient boolean removed;
+    }
+}
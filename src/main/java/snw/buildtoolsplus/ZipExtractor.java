@@ -0,0 +1,262 @@
+package snw.buildtoolsplus;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts zip archives with one worker per core.
+ * Directories are created first, then the files are inflated in parallel.
+ * Entries that would end up outside of the target directory (zip slip) are rejected,
+ *  and the Unix permissions stored in the archive are restored, so that <code>bin/mvn</code> stays executable.
+ * A manifest of the extracted files is written last, a later run can skip the work if nothing has changed.
+ *
+ * @author SNWCreations
+ */
+public class ZipExtractor {
+    private static final Gson GSON = new Gson();
+    private static final String MANIFEST_NAME = ".buildtoolsplus-extracted.json";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // True if the directory holds a complete extraction of an archive with the given SHA-1.
+    public static boolean isExtracted(File destDir, String archiveSha1) {
+        File manifestFile = new File(destDir, MANIFEST_NAME);
+        if (!manifestFile.isFile()) {
+            return false;
+        }
+        Manifest manifest;
+        try (Reader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            manifest = GSON.fromJson(reader, Manifest.class);
+        } catch (IOException | JsonParseException e) {
+            return false;
+        }
+        if (manifest == null || manifest.files == null || !archiveSha1.equalsIgnoreCase(manifest.archiveSha1)) {
+            return false;
+        }
+        for (Map.Entry<String, Long> file : manifest.files.entrySet()) {
+            File extracted = new File(destDir, file.getKey());
+            if (!extracted.isFile() || extracted.length() != file.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void extract(File archive, File destDir) throws IOException {
+        if (!archive.isFile()) {
+            throw new IOException(archive.getPath() + " 所指文件不存在");
+        }
+        try (Metrics.Timer timer = Metrics.start("unzip", archive.getName())) {
+            extract0(archive, destDir);
+            timer.addBytes(archive.length());
+            timer.succeeded();
+        }
+    }
+
+    private static void extract0(File archive, File destDir) throws IOException {
+        final Path destPath = destDir.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(destPath);
+        new File(destDir, MANIFEST_NAME).delete(); // incomplete until we say otherwise
+
+        Map<String, Integer> modes = readUnixModes(archive);
+        final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        final Map<String, Long> extractedFiles = Collections.synchronizedMap(new TreeMap<>());
+
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            List<ZipEntry> files = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path target = resolve(destPath, entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    files.add(entry);
+                }
+            }
+
+            int threads = Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "Unzip-" + archive.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (ZipEntry entry : files) {
+                    futures.add(executor.submit(() -> {
+                        Path target = resolve(destPath, entry.getName());
+                        extractEntry(zipFile, entry, target);
+                        Integer mode = modes.get(entry.getName());
+                        if (mode != null) {
+                            applyMode(target, mode, posix);
+                        }
+                        extractedFiles.put(destPath.relativize(target).toString().replace(File.separatorChar, '/'), Files.size(target));
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("解压被中断", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.archiveSha1 = HashCache.getSha1(archive);
+        manifest.files = new TreeMap<>(extractedFiles);
+        try (Writer writer = Files.newBufferedWriter(new File(destDir, MANIFEST_NAME).toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(manifest, writer);
+        }
+    }
+
+    private static Path resolve(Path destPath, String name) throws IOException {
+        Path target = destPath.resolve(name).normalize();
+        if (!target.startsWith(destPath)) {
+            throw new IOException("压缩包中的 " + name + " 指向解压目录之外，拒绝解压");
+        }
+        return target;
+    }
+
+    private static void extractEntry(ZipFile zipFile, ZipEntry entry, Path target) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        try (InputStream in = zipFile.getInputStream(entry);
+             OutputStream out = Files.newOutputStream(target)) {
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        }
+        if (entry.getTime() != -1) {
+            Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getTime()));
+        }
+    }
+
+    private static void applyMode(Path target, int mode, boolean posix) throws IOException {
+        if (posix) {
+            Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+            PosixFilePermission[] order = {
+                    PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+                    PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+                    PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+            };
+            for (int bit = 0; bit < order.length; bit++) {
+                if ((mode & (1 << bit)) != 0) {
+                    permissions.add(order[bit]);
+                }
+            }
+            // we must be able to read what we have extracted, and to replace it on the next extraction
+            permissions.add(PosixFilePermission.OWNER_READ);
+            permissions.add(PosixFilePermission.OWNER_WRITE);
+            Files.setPosixFilePermissions(target, permissions);
+        } else if ((mode & 0111) != 0) {
+            target.toFile().setExecutable(true);
+        }
+    }
+
+    // java.util.zip does not expose the "external attributes" of the entries, where Unix zip tools keep the file mode.
+    // So we read them from the central directory ourselves.
+    // Returns an empty map if the archive has no Unix modes (or is a zip64 archive, which we do not need here).
+    private static Map<String, Integer> readUnixModes(File archive) throws IOException {
+        Map<String, Integer> modes = new HashMap<>();
+        try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+            long length = file.length();
+            int tailSize = (int) Math.min(length, 0xFFFF + 22); // the end record plus the longest possible comment
+            byte[] tail = new byte[tailSize];
+            file.seek(length - tailSize);
+            file.readFully(tail);
+
+            int end = -1;
+            for (int i = tailSize - 22; i >= 0; i--) {
+                if (readInt(tail, i) == 0x06054b50) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return modes;
+            }
+            int count = readShort(tail, end + 10);
+            long directorySize = readInt(tail, end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = readInt(tail, end + 16) & 0xFFFFFFFFL;
+            if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > length) {
+                return modes;
+            }
+
+            byte[] directory = new byte[(int) directorySize];
+            file.seek(directoryOffset);
+            file.readFully(directory);
+            int pos = 0;
+            for (int i = 0; i < count && pos + 46 <= directory.length; i++) {
+                if (readInt(directory, pos) != 0x02014b50) {
+                    break;
+                }
+                int madeBy = readShort(directory, pos + 4) >> 8;
+                int nameLength = readShort(directory, pos + 28);
+                int extraLength = readShort(directory, pos + 30);
+                int commentLength = readShort(directory, pos + 32);
+                int externalAttributes = readInt(directory, pos + 38);
+                // ZipFile decodes every name as UTF-8 by default, so we do the same to get the same keys
+                String name = new String(directory, pos + 46, nameLength, StandardCharsets.UTF_8);
+                int mode = (externalAttributes >>> 16) & 0777;
+                if (madeBy == 3 && mode != 0) { // 3 - Unix
+                    modes.put(name, mode);
+                }
+                pos += 46 + nameLength + extraLength + commentLength;
+            }
+        }
+        return modes;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return readShort(data, offset) | readShort(data, offset + 2) << 16;
+    }
+
+    private static class Manifest {
+        private String archiveSha1;
+        private Map<String, Long> files;
+    }
+}
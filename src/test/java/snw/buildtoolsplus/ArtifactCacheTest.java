@@ -0,0 +1,82 @@
+package snw.buildtoolsplus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * What is done to a restored file must not reach the object in the cache.
+ *
+ * @author SNWCreations
+ */
+public class ArtifactCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File originalCacheDir;
+    private long originalCacheMaxSize;
+
+    @Before
+    public void useTemporaryCache() throws IOException {
+        originalCacheDir = Main.CACHE_DIR;
+        originalCacheMaxSize = Main.CACHE_MAX_SIZE;
+        Main.CACHE_DIR = folder.newFolder("cache");
+        Main.CACHE_MAX_SIZE = 1024 * 1024;
+    }
+
+    @After
+    public void restoreCache() {
+        Main.CACHE_DIR = originalCacheDir;
+        Main.CACHE_MAX_SIZE = originalCacheMaxSize;
+    }
+
+    @Test
+    public void changingARestoredFileLeavesTheCacheAlone() throws Exception {
+        File built = write(new File(folder.getRoot(), "built.jar"), "the server");
+        String sha1 = ArtifactCache.add(built);
+
+        File target = new File(folder.newFolder("run"), "spigot.jar");
+        assertTrue(ArtifactCache.restore(sha1, target));
+        assertEquals("the server", read(target));
+
+        // written in place, like a tool that opens the file for writing instead of replacing it
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.write("THE".getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(ArtifactCache.restore(sha1, target));
+        assertEquals("the server", read(target));
+    }
+
+    @Test
+    public void changedObjectIsNotRestored() throws Exception {
+        File built = write(new File(folder.getRoot(), "built.jar"), "the server");
+        String sha1 = ArtifactCache.add(built);
+        File object = new File(new File(new File(Main.CACHE_DIR, "objects"), sha1.substring(0, 2)), sha1);
+        assertTrue(object.isFile());
+
+        write(object, "something else");
+        assertFalse(ArtifactCache.restore(sha1, new File(folder.getRoot(), "spigot.jar")));
+        assertFalse(object.exists()); // evicted, the next store puts the right one there
+    }
+
+    private static File write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,119 @@
+package snw.buildtoolsplus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The range bookkeeping a resumed download relies on.
+ *
+ * @author SNWCreations
+ */
+public class DownloadJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DownloadJournal journal(long length) {
+        return new DownloadJournal("https://example.com/file", null, "\"etag\"", null, length);
+    }
+
+    @Test
+    public void adjacentRangesAreMerged() {
+        DownloadJournal journal = journal(100);
+        journal.markCompleted(0, 9);
+        journal.markCompleted(10, 19);
+        assertEquals(20, journal.getContiguousLength());
+        assertRanges(journal.getMissingRanges(), 20, 99);
+    }
+
+    @Test
+    public void overlappingRangesAreCountedOnce() {
+        DownloadJournal journal = journal(100);
+        journal.markCompleted(10, 29);
+        journal.markCompleted(20, 39);
+        journal.markCompleted(15, 25);
+        assertEquals(30, journal.getCompletedBytes());
+        assertEquals(0, journal.getContiguousLength());
+        assertRanges(journal.getMissingRanges(), 0, 9, 40, 99);
+    }
+
+    @Test
+    public void rangesArriveInAnyOrder() {
+        DownloadJournal journal = journal(100);
+        journal.markCompleted(80, 99);
+        journal.markCompleted(0, 9);
+        journal.markCompleted(40, 49);
+        assertRanges(journal.getMissingRanges(), 10, 39, 50, 79);
+
+        // fills both holes and joins everything
+        journal.markCompleted(10, 79);
+        assertTrue(journal.getMissingRanges().isEmpty());
+        assertEquals(100, journal.getContiguousLength());
+        assertEquals(100, journal.getCompletedBytes());
+    }
+
+    @Test
+    public void firstMissingSkipsCompletedData() {
+        DownloadJournal journal = journal(100);
+        journal.markCompleted(0, 9);
+        journal.markCompleted(10, 19);
+        journal.markCompleted(30, 39);
+        assertEquals(20, journal.getFirstMissing(0, 49));
+        assertEquals(25, journal.getFirstMissing(25, 49));
+        assertEquals(40, journal.getFirstMissing(30, 49));
+        assertEquals(40, journal.getFirstMissing(30, 39)); // the whole segment is there: to + 1
+    }
+
+    @Test
+    public void survivesSaveAndLoad() throws Exception {
+        File file = folder.newFile("file.part.json");
+        DownloadJournal journal = journal(100);
+        journal.markCompleted(0, 49);
+        journal.markCompleted(60, 69);
+        journal.save(file);
+
+        DownloadJournal loaded = DownloadJournal.load(file);
+        assertEquals(60, loaded.getCompletedBytes());
+        assertRanges(loaded.getMissingRanges(), 50, 59, 70, 99);
+    }
+
+    @Test
+    public void brokenJournalIsIgnored() throws Exception {
+        File file = folder.newFile("file.part.json");
+        java.nio.file.Files.write(file.toPath(), "{ not json".getBytes("UTF-8"));
+        assertNull(DownloadJournal.load(file));
+        assertNull(DownloadJournal.load(new File(folder.getRoot(), "missing.json")));
+    }
+
+    @Test
+    public void resumesOnlyWhenTheServerStillHasTheSameData() {
+        DownloadJournal journal = journal(100);
+        assertTrue(journal.matches("https://example.com/file", null, "\"etag\"", null, 100));
+        assertFalse(journal.matches("https://example.com/file", null, "\"other\"", null, 100));
+        assertFalse(journal.matches("https://example.com/file", null, "\"etag\"", null, 101));
+        assertFalse(journal.matches("https://example.com/other", null, "\"etag\"", null, 100));
+
+        // nothing to tell the versions apart with
+        DownloadJournal unvalidated = new DownloadJournal("https://example.com/file", null, null, null, 100);
+        assertFalse(unvalidated.matches("https://example.com/file", null, null, null, 100));
+    }
+
+    // expected - from, to, from, to...
+    private static void assertRanges(List<long[]> actual, long... expected) {
+        long[] flat = new long[actual.size() * 2];
+        for (int i = 0; i < actual.size(); i++) {
+            flat[i * 2] = actual.get(i)[0];
+            flat[i * 2 + 1] = actual.get(i)[1];
+        }
+        assertArrayEquals(expected, flat);
+    }
+}
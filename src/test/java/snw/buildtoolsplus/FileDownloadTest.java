@@ -0,0 +1,214 @@
+package snw.buildtoolsplus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Whole downloads from local servers: the segments, the digest fed out of order, and the switch to the next mirror.
+ *
+ * @author SNWCreations
+ */
+public class FileDownloadTest {
+    // four segments of the smallest size that is split
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] data = new byte[FILE_SIZE];
+    private String sha1;
+    private int originalConnections;
+    private int originalMaxConnections;
+
+    @Before
+    public void createData() throws Exception {
+        new Random(20221001).nextBytes(data);
+        sha1 = Util.toHex(MessageDigest.getInstance("sha-1").digest(data));
+        originalConnections = Main.DOWNLOAD_CONNECTIONS;
+        originalMaxConnections = Main.MAX_CONNECTIONS;
+        Main.DOWNLOAD_CONNECTIONS = 4;
+        Main.MAX_CONNECTIONS = 8;
+    }
+
+    @After
+    public void restoreConnections() {
+        Main.DOWNLOAD_CONNECTIONS = originalConnections;
+        Main.MAX_CONNECTIONS = originalMaxConnections;
+    }
+
+    @Test
+    public void segmentsArriveOutOfOrder() throws Exception {
+        try (TestServer server = new TestServer(data, true)) {
+            // the first segment comes last, so the digest has to read the others back from the file
+            server.slowFrom = 0;
+            File target = new File(folder.getRoot(), "file.bin");
+            new FileDownload(server.getUrl(), target.getPath(), sha1).start();
+
+            assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+            assertEquals(sha1, HashCache.getSha1(target));
+            assertEquals(4, server.segments.get());
+            assertTrue("the segments were not downloaded at the same time", server.maxActive.get() > 1);
+            assertFalse(new File(target.getPath() + ".part").exists());
+            assertFalse(new File(target.getPath() + ".part.json").exists());
+        }
+    }
+
+    @Test
+    public void serverWithoutRangesSendsTheWholeFile() throws Exception {
+        try (TestServer server = new TestServer(data, false)) {
+            File target = new File(folder.getRoot(), "file.bin");
+            new FileDownload(server.getUrl(), target.getPath(), sha1).start();
+
+            assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+            assertEquals(0, server.segments.get());
+        }
+    }
+
+    @Test
+    public void brokenSegmentContinuesOnTheNextMirror() throws Exception {
+        try (TestServer broken = new TestServer(data, true); TestServer next = new TestServer(data, true)) {
+            // the connection of the third segment is closed half way through
+            broken.failFrom = FILE_SIZE / 2;
+            File target = new File(folder.getRoot(), "file.bin");
+            new FileDownload(Arrays.asList(broken.getUrl(), next.getUrl()), target.getPath(), sha1).start();
+
+            assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+            assertTrue(broken.failed.get());
+            // only what was missing, starting after the bytes the broken connection had delivered
+            assertTrue(next.segments.get() >= 1);
+            assertTrue(next.firstFrom.get() > FILE_SIZE / 2);
+        }
+    }
+
+    @Test
+    public void wrongSha1IsRejected() throws Exception {
+        try (TestServer server = new TestServer(data, true)) {
+            File target = new File(folder.getRoot(), "file.bin");
+            try {
+                new FileDownload(Collections.singletonList(server.getUrl()), target.getPath(), "0000000000000000000000000000000000000000").start();
+                fail("a file with the wrong SHA-1 was accepted");
+            } catch (RuntimeException e) {
+                // expected
+            }
+            assertFalse(target.exists());
+            assertFalse(new File(target.getPath() + ".part").exists());
+        }
+    }
+
+    // Serves one file, with or without byte ranges, and can break or delay the segment starting at a given offset.
+    private static class TestServer implements AutoCloseable {
+        private static final int CHUNK_SIZE = 16 * 1024;
+
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "Test-HTTP");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final byte[] data;
+        private final boolean ranges;
+        private volatile int slowFrom = -1;
+        private volatile int failFrom = -1;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        // range requests other than the probe, and where the first of them started
+        private final AtomicInteger segments = new AtomicInteger();
+        private final AtomicInteger firstFrom = new AtomicInteger(-1);
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        private TestServer(byte[] data, boolean ranges) throws IOException {
+            this.data = data;
+            this.ranges = ranges;
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.setExecutor(executor);
+            server.createContext("/file.bin", this::handle);
+            server.start();
+        }
+
+        private String getUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/file.bin";
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            int now = active.incrementAndGet();
+            maxActive.accumulateAndGet(now, Math::max);
+            try {
+                int from = 0;
+                int to = data.length - 1;
+                String range = exchange.getRequestHeaders().getFirst("Range"); // only "bytes=a-b" is sent by FileDownload
+                if (ranges && range != null && range.startsWith("bytes=")) {
+                    String[] bounds = range.substring("bytes=".length()).split("-");
+                    from = Integer.parseInt(bounds[0]);
+                    to = Math.min(Integer.parseInt(bounds[1]), data.length - 1);
+                    if (to > from) { // not the probe
+                        segments.incrementAndGet();
+                        firstFrom.compareAndSet(-1, from);
+                    }
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+                    exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                    exchange.sendResponseHeaders(206, to - from + 1);
+                } else {
+                    exchange.sendResponseHeaders(200, data.length);
+                }
+                if (from == slowFrom && to > from) {
+                    sleep(500);
+                }
+                boolean fail = from == failFrom && to > from && failed.compareAndSet(false, true);
+                OutputStream out = exchange.getResponseBody();
+                for (int position = from; position <= to; position += CHUNK_SIZE) {
+                    if (fail && position - from >= (to - from) / 2) {
+                        out.flush();
+                        // leaves the response unfinished, the server drops the connection
+                        throw new IOException("broken on purpose");
+                    }
+                    out.write(data, position, Math.min(CHUNK_SIZE, to - position + 1));
+                }
+                out.close();
+            } finally {
+                active.decrementAndGet();
+                exchange.close();
+            }
+        }
+
+        private static void sleep(long millis) throws IOException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
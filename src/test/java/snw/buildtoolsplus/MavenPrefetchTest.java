@@ -0,0 +1,142 @@
+package snw.buildtoolsplus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The versions the prefetch works out from the poms: properties, parents, dependency management and imported BOMs.
+ * The parents and BOMs are placed in a temporary local repository, so nothing is downloaded.
+ *
+ * @author SNWCreations
+ */
+public class MavenPrefetchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String originalRepository;
+    private File repository;
+
+    @Before
+    public void useTemporaryRepository() throws IOException {
+        originalRepository = System.getProperty("maven.repo.local");
+        repository = folder.newFolder("repository");
+        System.setProperty("maven.repo.local", repository.getPath());
+
+        install("org.example", "parent", "1.0", project("org.example", "parent", "1.0", "pom",
+                "<properties><lib.version>2.0</lib.version><shared>parent</shared></properties>"
+                        + "<dependencyManagement><dependencies>"
+                        + dependency("com.lib", "managed", "${lib.version}", null)
+                        + "<dependency><groupId>org.example</groupId><artifactId>bom</artifactId><version>3.0</version>"
+                        + "<type>pom</type><scope>import</scope></dependency>"
+                        + "</dependencies></dependencyManagement>"
+                        + "<build><pluginManagement><plugins>"
+                        + "<plugin><artifactId>maven-shade-plugin</artifactId><version>3.2.4</version></plugin>"
+                        + "</plugins></pluginManagement></build>"));
+        install("org.example", "bom", "3.0", project("org.example", "bom", "3.0", "pom",
+                "<dependencyManagement><dependencies>"
+                        + dependency("com.bom", "from-bom", "3.1", null)
+                        + dependency("com.lib", "managed", "9.9", null) // the parent manages it first
+                        + "</dependencies></dependencyManagement>"));
+    }
+
+    @After
+    public void restoreRepository() {
+        if (originalRepository == null) {
+            System.clearProperty("maven.repo.local");
+        } else {
+            System.setProperty("maven.repo.local", originalRepository);
+        }
+    }
+
+    @Test
+    public void versionsComeFromParentsAndBoms() throws Exception {
+        MavenPrefetch.Pom child = MavenPrefetch.parse(bytes("<project>"
+                + "<parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"
+                + "<artifactId>child</artifactId>"
+                + "<properties><shared>child</shared><own>${shared}-x</own></properties>"
+                + "<dependencies>"
+                + dependency("com.lib", "managed", null, null)
+                + dependency("com.bom", "from-bom", null, "test")
+                + dependency("com.direct", "direct", "${own}", null)
+                + dependency("org.example", "sibling", "${project.version}", null)
+                + "</dependencies>"
+                + "<build><plugins><plugin><artifactId>maven-shade-plugin</artifactId></plugin></plugins></build>"
+                + "</project>"));
+        MavenPrefetch.Resolved resolved = prefetch().resolve(child, 0);
+
+        List<String> keys = new ArrayList<>();
+        for (MavenPrefetch.Dependency dependency : child.dependencies) {
+            keys.add(resolved.complete(dependency).key());
+        }
+        assertEquals("com.lib:managed:2.0:jar:null", keys.get(0));
+        assertEquals("com.bom:from-bom:3.1:jar:null", keys.get(1));
+        assertEquals("com.direct:direct:child-x:jar:null", keys.get(2)); // the child's property wins
+        assertEquals("org.example:sibling:1.0:jar:null", keys.get(3)); // the version is inherited from the parent
+        assertEquals("org.apache.maven.plugins:maven-shade-plugin:3.2.4:jar:null",
+                resolved.completePlugin(child.plugins.get(0)).key());
+    }
+
+    @Test
+    public void unknownPropertiesAreLeftAlone() throws Exception {
+        MavenPrefetch.Pom pom = MavenPrefetch.parse(bytes(project("org.example", "alone", "1.0", "jar",
+                "<properties><a>${b}</a><b>value</b><loop>${loop}</loop></properties>")));
+        MavenPrefetch.Resolved resolved = prefetch().resolve(pom, 0);
+
+        assertEquals("value", resolved.interpolate("${a}"));
+        assertEquals("1.0-value", resolved.interpolate("${project.version}-${a}"));
+        assertEquals("${missing}", resolved.interpolate("${missing}"));
+        assertEquals("${loop}", resolved.interpolate("${loop}"));
+    }
+
+    @Test
+    public void missingParentDoesNotStopTheResolution() throws Exception {
+        MavenPrefetch.Pom pom = MavenPrefetch.parse(bytes("<project>"
+                + "<parent><groupId>org.example</groupId><artifactId>nowhere</artifactId><version>1.0</version></parent>"
+                + "<artifactId>orphan</artifactId><properties><v>4.0</v></properties>"
+                + "<dependencies>" + dependency("com.lib", "managed", null, null) + dependency("com.lib", "own", "${v}", null) + "</dependencies>"
+                + "</project>"));
+        MavenPrefetch.Resolved resolved = prefetch().resolve(pom, 0);
+
+        // not managed without the parent, the prefetch skips it and Maven fetches it itself
+        assertEquals("com.lib:managed:null:jar:null", resolved.complete(pom.dependencies.get(0)).key());
+        assertEquals("com.lib:own:4.0:jar:null", resolved.complete(pom.dependencies.get(1)).key());
+    }
+
+    // a mirror nobody listens on, what is not in the temporary repository is missing instead of downloaded
+    private static MavenPrefetch prefetch() {
+        return new MavenPrefetch("http://127.0.0.1:1", "*", 1);
+    }
+
+    private void install(String groupId, String artifactId, String version, String pom) throws IOException {
+        File file = new File(repository, groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), bytes(pom));
+    }
+
+    private static String project(String groupId, String artifactId, String version, String packaging, String body) {
+        return "<project><groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId>"
+                + "<version>" + version + "</version><packaging>" + packaging + "</packaging>" + body + "</project>";
+    }
+
+    private static String dependency(String groupId, String artifactId, String version, String scope) {
+        return "<dependency><groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId>"
+                + (version != null ? "<version>" + version + "</version>" : "")
+                + (scope != null ? "<scope>" + scope + "</scope>" : "") + "</dependency>";
+    }
+
+    private static byte[] bytes(String xml) {
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+}
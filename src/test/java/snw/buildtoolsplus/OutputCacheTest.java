@@ -0,0 +1,103 @@
+package snw.buildtoolsplus;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * How a build is identified: every input must be part of the key, and nothing else.
+ *
+ * @author SNWCreations
+ */
+public class OutputCacheTest {
+    private static final String SERVER = "A0B1C2D3E4F5A6B7C8D9E0F1A2B3C4D5E6F7A8B9";
+    private static final String BUILD_TOOLS = "0123456789abcdef0123456789abcdef01234567";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, String> commits(String bukkit) {
+        Map<String, String> commits = new LinkedHashMap<>();
+        commits.put("BuildData", "1111111111111111111111111111111111111111");
+        commits.put("Bukkit", bukkit);
+        commits.put("CraftBukkit", "3333333333333333333333333333333333333333");
+        commits.put("Spigot", "4444444444444444444444444444444444444444");
+        return commits;
+    }
+
+    private static String key(String version, String target, Map<String, String> commits, String server, String buildTools) {
+        return OutputCache.keyOf(OutputCache.describeInputs(version, target, commits, server, buildTools)).getValue();
+    }
+
+    @Test
+    public void sameInputsGiveTheSameKey() {
+        String key = key("1.19.2", "SPIGOT", commits("2222222222222222222222222222222222222222"), SERVER, BUILD_TOOLS);
+        assertEquals(key, key("1.19.2", "SPIGOT", commits("2222222222222222222222222222222222222222"), SERVER, BUILD_TOOLS));
+        assertTrue(key.matches("[0-9a-f]{40}"));
+    }
+
+    @Test
+    public void everyInputChangesTheKey() {
+        String bukkit = "2222222222222222222222222222222222222222";
+        String key = key("1.19.2", "SPIGOT", commits(bukkit), SERVER, BUILD_TOOLS);
+        assertNotEquals(key, key("1.19.3", "SPIGOT", commits(bukkit), SERVER, BUILD_TOOLS));
+        assertNotEquals(key, key("1.19.2", "CRAFTBUKKIT", commits(bukkit), SERVER, BUILD_TOOLS));
+        assertNotEquals(key, key("1.19.2", "SPIGOT", commits("5555555555555555555555555555555555555555"), SERVER, BUILD_TOOLS));
+        assertNotEquals(key, key("1.19.2", "SPIGOT", commits(bukkit), "b0b1c2d3e4f5a6b7c8d9e0f1a2b3c4d5e6f7a8b9", BUILD_TOOLS));
+        assertNotEquals(key, key("1.19.2", "SPIGOT", commits(bukkit), SERVER, "7654321076543210765432107654321076543210"));
+    }
+
+    @Test
+    public void serverHashCaseDoesNotMatter() {
+        String bukkit = "2222222222222222222222222222222222222222";
+        assertEquals(key("1.19.2", "SPIGOT", commits(bukkit), SERVER, BUILD_TOOLS),
+                key("1.19.2", "SPIGOT", commits(bukkit), SERVER.toLowerCase(), BUILD_TOOLS));
+    }
+
+    @Test
+    public void inputsAreReadable() {
+        String inputs = OutputCache.describeInputs("1.19.2", "SPIGOT", commits("2222222222222222222222222222222222222222"), SERVER, BUILD_TOOLS);
+        assertEquals("format=1\n"
+                + "version=1.19.2\n"
+                + "target=SPIGOT\n"
+                + "BuildData=1111111111111111111111111111111111111111\n"
+                + "Bukkit=2222222222222222222222222222222222222222\n"
+                + "CraftBukkit=3333333333333333333333333333333333333333\n"
+                + "Spigot=4444444444444444444444444444444444444444\n"
+                + "server=" + SERVER.toLowerCase() + "\n"
+                + "buildtools=" + BUILD_TOOLS + "\n", inputs);
+    }
+
+    @Test
+    public void refsAreResolvedToFullCommitIds() throws Exception {
+        File repositoryDir = folder.newFolder("Bukkit");
+        String head;
+        try (Git git = Git.init().setDirectory(repositoryDir).call()) {
+            RevCommit commit = git.commit().setMessage("init").setAllowEmpty(true)
+                    .setAuthor("Test", "test@example.com").setCommitter("Test", "test@example.com").call();
+            head = commit.getName();
+            git.tag().setName("v1").setObjectId(commit).setAnnotated(true).setMessage("v1")
+                    .setTagger(new PersonIdent("Test", "test@example.com")).call();
+        }
+
+        assertEquals(head, OutputCache.resolveCommit(repositoryDir, "HEAD"));
+        assertEquals(head, OutputCache.resolveCommit(repositoryDir, head.substring(0, 10)));
+        assertEquals(head, OutputCache.resolveCommit(repositoryDir, "v1")); // the commit, not the tag object
+        // a commit BuildTools will fetch itself
+        assertEquals("abcdefabcdefabcdefabcdefabcdefabcdefabcd", OutputCache.resolveCommit(repositoryDir, "ABCDEFABCDEFABCDEFABCDEFABCDEFABCDEFABCD"));
+        assertNull(OutputCache.resolveCommit(repositoryDir, "refs/remotes/origin/no-such-branch"));
+        assertNull(OutputCache.resolveCommit(folder.newFolder("not-a-repository"), "HEAD"));
+    }
+}
@@ -0,0 +1,117 @@
+package snw.buildtoolsplus;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The order the steps run in, and what happens to the others when one of them fails.
+ *
+ * @author SNWCreations
+ */
+public class TaskSchedulerTest {
+
+    @Test
+    public void stepsRunAfterTheirDependencies() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        TaskScheduler scheduler = new TaskScheduler(4);
+        scheduler.add("download", () -> order.add("download"));
+        scheduler.add("unzip", () -> order.add("unzip"), "download");
+        scheduler.add("clone", () -> order.add("clone"));
+        scheduler.add("build", () -> order.add("build"), "unzip", "clone");
+        scheduler.run();
+
+        assertEquals(4, order.size());
+        assertTrue(order.indexOf("download") < order.indexOf("unzip"));
+        assertTrue(order.indexOf("unzip") < order.indexOf("build"));
+        assertTrue(order.indexOf("clone") < order.indexOf("build"));
+    }
+
+    @Test
+    public void independentStepsRunAtTheSameTime() throws Exception {
+        // each waits for the other, so this only finishes if both run at once
+        CountDownLatch latch = new CountDownLatch(2);
+        TaskScheduler scheduler = new TaskScheduler(2);
+        for (String name : new String[]{"a", "b"}) {
+            scheduler.add(name, () -> {
+                latch.countDown();
+                if (!latch.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("the other step never started");
+                }
+            });
+        }
+        scheduler.run();
+    }
+
+    @Test
+    public void failureSkipsTheDependentStepsOnly() {
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        IOException cause = new IOException("mirror unreachable");
+        TaskScheduler scheduler = new TaskScheduler(4);
+        scheduler.add("download", () -> {
+            throw cause;
+        });
+        scheduler.add("unzip", () -> ran.add("unzip"), "download");
+        scheduler.add("config", () -> ran.add("config"), "unzip");
+        scheduler.add("clone", () -> ran.add("clone"));
+        scheduler.add("build", () -> ran.add("build"), "config", "clone");
+
+        try {
+            scheduler.run();
+            fail("the failed step was not reported");
+        } catch (TaskScheduler.Failure e) {
+            assertEquals(Collections.singletonList("download"), new ArrayList<>(e.getFailures().keySet()));
+            assertSame(cause, e.getFailures().get("download"));
+            assertEquals(Arrays.asList("unzip", "config", "build"), e.getSkipped());
+        }
+        assertEquals(Collections.singletonList("clone"), ran);
+    }
+
+    @Test
+    public void everyFailureIsReported() {
+        TaskScheduler scheduler = new TaskScheduler(2);
+        scheduler.add("a", () -> {
+            throw new IllegalStateException("a");
+        });
+        scheduler.add("b", () -> {
+            throw new IOException("b");
+        });
+        scheduler.add("c", () -> {
+        });
+        try {
+            scheduler.run();
+            fail("the failed steps were not reported");
+        } catch (TaskScheduler.Failure e) {
+            // in the order they failed
+            assertEquals(new HashSet<>(Arrays.asList("a", "b")), e.getFailures().keySet());
+            assertTrue(e.getSkipped().isEmpty());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownDependencyIsRejected() {
+        new TaskScheduler(1).add("unzip", () -> {
+        }, "download");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateStepIsRejected() {
+        TaskScheduler scheduler = new TaskScheduler(1);
+        scheduler.add("download", () -> {
+        });
+        scheduler.add("download", () -> {
+        });
+    }
+}
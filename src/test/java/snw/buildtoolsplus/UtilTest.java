@@ -0,0 +1,43 @@
+package snw.buildtoolsplus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author SNWCreations
+ */
+public class UtilTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void toHexKeepsLeadingZeros() {
+        assertEquals("", Util.toHex(new byte[0]));
+        assertEquals("00", Util.toHex(new byte[]{0}));
+        assertEquals("000f", Util.toHex(new byte[]{0, 0x0F}));
+        assertEquals("00010a", Util.toHex(new byte[]{0, 1, 10}));
+    }
+
+    @Test
+    public void toHexHandlesNegativeBytes() {
+        assertEquals("ff80", Util.toHex(new byte[]{(byte) 0xFF, (byte) 0x80}));
+    }
+
+    @Test
+    public void digestKeepsLeadingZeros() throws Exception {
+        // the SHA-1 of "127" starts with a zero byte, which BigInteger.toString(16) would have dropped
+        File file = folder.newFile("digest.txt");
+        Files.write(file.toPath(), "127".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("008451a05e1e7aa32c75119df950d405265e0904", Util.getFileDigest(file, "sha-1"));
+
+        Files.write(file.toPath(), "abc".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", Util.getFileDigest(file, "sha-1"));
+    }
+}
@@ -0,0 +1,36 @@
+package snw.buildtoolsplus;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The server jars the cleanup keeps are those the build is going to use, whatever name they were requested by.
+ *
+ * @author SNWCreations
+ */
+public class WorkspaceTest {
+
+    @Test
+    public void aliasKeepsTheServerJarOfItsVersion() {
+        Map<String, String> resolved = new HashMap<>();
+        resolved.put("latest", "1.19.3");
+        resolved.put("1.19.3", "1.19.3");
+        resolved.put("1.18.2", "1.18.2");
+        List<String> versions = Main.resolveVersions(Arrays.asList("latest", "1.18.2", "1.19.3"), resolved);
+        assertEquals(Arrays.asList("1.19.3", "1.18.2"), versions);
+
+        Set<String> kept = Workspace.serverJarsOf(versions);
+        assertTrue(kept.contains("work/minecraft_server.1.19.3.jar"));
+        assertTrue(kept.contains("work/minecraft_server.1.18.2.jar"));
+        assertFalse(kept.contains("work/minecraft_server.latest.jar"));
+    }
+}
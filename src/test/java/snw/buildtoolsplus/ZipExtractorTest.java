@@ -0,0 +1,158 @@
+package snw.buildtoolsplus;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Extraction of archives like the Maven distribution: the files, their modes, and the names that must be refused.
+ *
+ * @author SNWCreations
+ */
+public class ZipExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void extractsFilesAndDirectories() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("apache-maven/", null);
+        entries.put("apache-maven/conf/settings.xml", "<settings/>");
+        entries.put("apache-maven/lib/a.jar", "jar");
+        File archive = zip("maven.zip", entries, new LinkedHashMap<>());
+        File dest = new File(folder.getRoot(), "out");
+
+        ZipExtractor.extract(archive, dest);
+
+        assertEquals("<settings/>", read(new File(dest, "apache-maven/conf/settings.xml")));
+        assertEquals("jar", read(new File(dest, "apache-maven/lib/a.jar")));
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfTheTarget() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("fine.txt", "fine");
+        entries.put("../escaped.txt", "evil");
+        File archive = zip("slip.zip", entries, new LinkedHashMap<>());
+        File dest = new File(folder.getRoot(), "out");
+
+        try {
+            ZipExtractor.extract(archive, dest);
+            fail("an entry outside of the target directory was extracted");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(new File(folder.getRoot(), "escaped.txt").exists());
+        assertFalse(ZipExtractor.isExtracted(dest, HashCache.getSha1(archive)));
+    }
+
+    @Test
+    public void restoresUnixModes() throws Exception {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("bin/mvn", "#!/bin/sh");
+        entries.put("bin/m2.conf", "conf");
+        entries.put("boot/readonly.jar", "jar");
+        Map<String, Integer> modes = new LinkedHashMap<>();
+        modes.put("bin/mvn", 0755);
+        modes.put("bin/m2.conf", 0644);
+        modes.put("boot/readonly.jar", 0444);
+        File archive = zip("modes.zip", entries, modes);
+        File dest = new File(folder.getRoot(), "out");
+
+        ZipExtractor.extract(archive, dest);
+
+        assertEquals("rwxr-xr-x", permissions(new File(dest, "bin/mvn")));
+        assertEquals("rw-r--r--", permissions(new File(dest, "bin/m2.conf")));
+        // we always keep the right to read and replace what we have extracted
+        assertEquals("rw-r--r--", permissions(new File(dest, "boot/readonly.jar")));
+    }
+
+    @Test
+    public void manifestNoticesChangedFiles() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("lib/a.jar", "jar");
+        File archive = zip("maven.zip", entries, new LinkedHashMap<>());
+        File dest = new File(folder.getRoot(), "out");
+        String sha1 = HashCache.getSha1(archive);
+
+        assertFalse(ZipExtractor.isExtracted(dest, sha1));
+        ZipExtractor.extract(archive, dest);
+        assertTrue(ZipExtractor.isExtracted(dest, sha1));
+        assertFalse(ZipExtractor.isExtracted(dest, "0000000000000000000000000000000000000000"));
+
+        Files.write(new File(dest, "lib/a.jar").toPath(), "truncated or replaced".getBytes(StandardCharsets.UTF_8));
+        assertFalse(ZipExtractor.isExtracted(dest, sha1));
+    }
+
+    // content - null for a directory
+    // modes - written into the central directory the way Unix zip tools do
+    private File zip(String name, Map<String, String> entries, Map<String, Integer> modes) throws IOException {
+        File archive = new File(folder.getRoot(), name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                if (entry.getValue() != null) {
+                    out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+        if (!modes.isEmpty()) {
+            setUnixModes(archive, modes);
+        }
+        return archive;
+    }
+
+    private static void setUnixModes(File archive, Map<String, Integer> modes) throws IOException {
+        byte[] data = Files.readAllBytes(archive.toPath());
+        for (int pos = 0; pos + 46 <= data.length; pos++) {
+            if (readInt(data, pos) != 0x02014b50) {
+                continue;
+            }
+            int nameLength = (data[pos + 28] & 0xFF) | (data[pos + 29] & 0xFF) << 8;
+            Integer mode = modes.get(new String(data, pos + 46, nameLength, StandardCharsets.UTF_8));
+            if (mode != null) {
+                data[pos + 5] = 3; // made by: Unix
+                int attributes = (0100000 | mode) << 16; // a regular file
+                for (int i = 0; i < 4; i++) {
+                    data[pos + 38 + i] = (byte) (attributes >>> (8 * i));
+                }
+            }
+        }
+        Files.write(archive.toPath(), data);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private static String permissions(File file) throws IOException {
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file.toPath());
+        return PosixFilePermissions.toString(permissions);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}